@@ -0,0 +1,13 @@
+USE notes;
+
+-- Adds the current-revision pointer and revision count to note.
+
+ALTER TABLE note
+    ADD COLUMN currentRevisionId INT(11) NULL,
+    ADD COLUMN revisionCount INT(11) NOT NULL DEFAULT 0,
+    ALGORITHM=INPLACE, LOCK=NONE;
+
+UPDATE note
+    JOIN (SELECT noteId, MAX(id) AS currentRevisionId, COUNT(id) AS revisionCount
+          FROM revision GROUP BY noteId) r ON r.noteId = note.id
+SET note.currentRevisionId = r.currentRevisionId, note.revisionCount = r.revisionCount;
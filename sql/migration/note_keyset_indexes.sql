@@ -0,0 +1,8 @@
+USE notes;
+
+-- Indexes backing keyset pagination of GET /api/notes ordered by (rating, id).
+
+ALTER TABLE note
+    ADD INDEX rating (rating, id),
+    ADD INDEX sectionRating (sectionId, rating, id),
+    ALGORITHM=INPLACE, LOCK=NONE;
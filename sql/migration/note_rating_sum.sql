@@ -0,0 +1,18 @@
+USE notes;
+
+-- Ratings are stored as an exact sum and count; rating is derived from them instead of
+-- being updated as a running average.
+
+ALTER TABLE note ADD COLUMN ratingSum BIGINT NOT NULL DEFAULT 0;
+
+UPDATE note SET numberOfRatings = COALESCE(numberOfRatings, 0),
+    ratingSum = ROUND(COALESCE(rating, 0) * COALESCE(numberOfRatings, 0));
+
+ALTER TABLE note
+    DROP INDEX rating,
+    DROP INDEX sectionRating,
+    DROP COLUMN rating,
+    MODIFY numberOfRatings INT(11) NOT NULL DEFAULT 0,
+    ADD COLUMN rating DECIMAL(5, 4) AS (IF(numberOfRatings = 0, 0, ratingSum / numberOfRatings)) STORED,
+    ADD KEY rating (rating, id),
+    ADD KEY sectionRating (sectionId, rating, id);
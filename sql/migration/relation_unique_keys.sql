@@ -0,0 +1,16 @@
+USE notes;
+
+-- Makes each following and ignore pair unique, with the viewer first, so the EXISTS / NOT EXISTS filters
+-- of the note list are answered by a single index lookup per note owner.
+
+DELETE duplicate FROM following AS duplicate
+    JOIN following AS kept ON kept.userId = duplicate.userId AND kept.followingId = duplicate.followingId
+        AND kept.id < duplicate.id;
+
+ALTER TABLE following ADD UNIQUE KEY userFollowing (userId, followingId);
+
+DELETE duplicate FROM `ignore` AS duplicate
+    JOIN `ignore` AS kept ON kept.userId = duplicate.userId AND kept.ignoredId = duplicate.ignoredId
+        AND kept.id < duplicate.id;
+
+ALTER TABLE `ignore` ADD UNIQUE KEY userIgnored (userId, ignoredId);
@@ -0,0 +1,6 @@
+USE notes;
+
+-- Superseded revisions may hold a reverse delta against the next revision instead of the full body.
+-- Existing rows stay full bodies; they are read exactly as before.
+
+ALTER TABLE revision ADD COLUMN delta BOOLEAN NOT NULL DEFAULT FALSE, ALGORITHM=INPLACE, LOCK=NONE;
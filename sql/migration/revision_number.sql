@@ -0,0 +1,15 @@
+USE notes;
+
+-- Stores the per-note revision number instead of computing it with COUNT subqueries.
+
+ALTER TABLE revision ADD COLUMN number INT(11) NULL, ALGORITHM=INPLACE, LOCK=NONE;
+
+UPDATE revision
+    JOIN (SELECT a.id, COUNT(b.id) AS number
+          FROM revision a JOIN revision b ON b.noteId = a.noteId AND b.id <= a.id
+          GROUP BY a.id) r ON r.id = revision.id
+SET revision.number = r.number;
+
+ALTER TABLE revision
+    MODIFY number INT(11) NOT NULL,
+    ADD UNIQUE KEY noteNumber (noteId, number);
@@ -0,0 +1,30 @@
+USE notes;
+
+-- Moves session.sessionId from TINYTEXT to an indexed BINARY(16) key without blocking logins.
+-- Run the steps in order; the old server version keeps working until step 5.
+
+-- 1. Add the new key column next to the old one.
+ALTER TABLE session ADD COLUMN sessionKey BINARY(16) NULL, ALGORITHM=INPLACE, LOCK=NONE;
+
+-- 2. Fill the new column for sessions created while the migration runs.
+DELIMITER //
+CREATE TRIGGER session_key_insert BEFORE INSERT ON session FOR EACH ROW
+BEGIN
+    SET NEW.sessionKey = UNHEX(REPLACE(NEW.sessionId, '-', ''));
+END//
+DELIMITER ;
+
+-- 3. Backfill existing rows; repeat until it reports 0 rows affected.
+UPDATE session SET sessionKey = UNHEX(REPLACE(sessionId, '-', '')) WHERE sessionKey IS NULL LIMIT 10000;
+
+-- 4. Index the new key.
+ALTER TABLE session ADD UNIQUE INDEX sessionKey (sessionKey), ALGORITHM=INPLACE, LOCK=NONE;
+
+-- 5. Stop the old server version, swap the columns and start the new one.
+DROP TRIGGER session_key_insert;
+UPDATE session SET sessionKey = UNHEX(REPLACE(sessionId, '-', '')) WHERE sessionKey IS NULL;
+ALTER TABLE session
+    DROP COLUMN sessionId,
+    CHANGE COLUMN sessionKey sessionId BINARY(16) NOT NULL,
+    RENAME INDEX sessionKey TO sessionId,
+    ALGORITHM=INPLACE, LOCK=NONE;
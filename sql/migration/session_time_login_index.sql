@@ -0,0 +1,3 @@
+USE notes;
+
+ALTER TABLE session ADD INDEX timeLogin (timeLogin), ALGORITHM=INPLACE, LOCK=NONE;
@@ -0,0 +1,17 @@
+USE notes;
+
+-- Stores the sum of the ratings of each user's notes and their count, maintained incrementally,
+-- instead of aggregating the note table for every listed user.
+
+ALTER TABLE user
+    ADD COLUMN noteRatingSum DECIMAL(20, 4) NOT NULL DEFAULT 0,
+    ADD COLUMN noteCount INT(11) NOT NULL DEFAULT 0;
+
+UPDATE user
+    JOIN (SELECT ownerId, SUM(rating) AS ratingSum, COUNT(*) AS notes FROM note GROUP BY ownerId) AS owned
+        ON owned.ownerId = user.id
+SET user.noteRatingSum = owned.ratingSum, user.noteCount = owned.notes;
+
+ALTER TABLE user
+    ADD COLUMN rating DECIMAL(12, 8) AS (IF(noteCount = 0, 0, noteRatingSum / noteCount)) STORED,
+    ADD KEY rating (rating, id);
@@ -12,15 +12,21 @@ CREATE TABLE user (
 	userType ENUM('ADMIN', 'USER') DEFAULT 'USER',
 	deleted BOOL DEFAULT FALSE,
     timeRegistered DATETIME NOT NULL,
-	PRIMARY KEY (id)
+	noteRatingSum DECIMAL(20, 4) NOT NULL DEFAULT 0,
+	noteCount INT(11) NOT NULL DEFAULT 0,
+	rating DECIMAL(12, 8) AS (IF(noteCount = 0, 0, noteRatingSum / noteCount)) STORED,
+	PRIMARY KEY (id),
+	KEY rating (rating, id)
 ) ENGINE=INNODB DEFAULT CHARSET=utf8;
 
 CREATE TABLE session (
 	id INT(11) NOT NULL AUTO_INCREMENT,
-	sessionId TINYTEXT NOT NULL,
+	sessionId BINARY(16) NOT NULL,
     timeLogin DATETIME NOT NULL,
     userId INT(11) NOT NULL,
     PRIMARY KEY (id),
+    UNIQUE KEY (sessionId),
+    KEY (timeLogin),
     FOREIGN KEY (userId) REFERENCES user (id)  ON DELETE CASCADE
 ) ENGINE=INNODB DEFAULT CHARSET=utf8;
     
@@ -30,6 +36,7 @@ CREATE TABLE following (
 	userId INT(11) NOT NULL,
 	followingId INT(11) NOT NULL,
 	PRIMARY KEY (id),
+	UNIQUE KEY userFollowing (userId, followingId),
 	FOREIGN KEY (userId) REFERENCES user (id) ON DELETE CASCADE,
 	FOREIGN KEY (followingId) REFERENCES user (id) ON DELETE CASCADE
 ) ENGINE=INNODB DEFAULT CHARSET=utf8;
@@ -39,6 +46,7 @@ CREATE TABLE `ignore` (
 	userId INT(11) NOT NULL,
 	ignoredId INT(11) NOT NULL,
 	PRIMARY KEY (id),
+	UNIQUE KEY userIgnored (userId, ignoredId),
 	FOREIGN KEY (userId) REFERENCES user (id) ON DELETE CASCADE,
     FOREIGN KEY (ignoredId) REFERENCES user (id) ON DELETE CASCADE
 ) ENGINE=INNODB DEFAULT CHARSET=utf8;
@@ -54,12 +62,17 @@ CREATE TABLE section (
 CREATE TABLE note (
     id INT(11) NOT NULL AUTO_INCREMENT,
 	subject VARCHAR(50) NOT NULL,
-	rating DECIMAL(5, 4) DEFAULT 0,
-	numberOfRatings INT(11) DEFAULT 0,
+	ratingSum BIGINT NOT NULL DEFAULT 0,
+	numberOfRatings INT(11) NOT NULL DEFAULT 0,
+	rating DECIMAL(5, 4) AS (IF(numberOfRatings = 0, 0, ratingSum / numberOfRatings)) STORED,
     timeCreated DATETIME NOT NULL,
 	ownerId INT(11) NOT NULL,
 	sectionId INT(11) NOT NULL,
+	currentRevisionId INT(11) NULL,
+	revisionCount INT(11) NOT NULL DEFAULT 0,
 	PRIMARY KEY (id),
+	KEY rating (rating, id),
+	KEY sectionRating (sectionId, rating, id),
 	FOREIGN KEY (ownerId) REFERENCES user (id),
 	FOREIGN KEY (sectionId) REFERENCES section (id)  ON DELETE CASCADE
 ) ENGINE=INNODB DEFAULT CHARSET=utf8;
@@ -68,7 +81,10 @@ CREATE TABLE revision (
     id INT(11) NOT NULL AUTO_INCREMENT,
 	body MEDIUMTEXT NOT NULL,
 	noteId INT(11) NOT NULL,
+	number INT(11) NOT NULL,
+	delta BOOLEAN NOT NULL DEFAULT FALSE,
 	PRIMARY KEY (id),
+	UNIQUE KEY noteNumber (noteId, number),
 	FOREIGN KEY (noteId) REFERENCES note (id) ON DELETE CASCADE
 ) ENGINE=INNODB DEFAULT CHARSET=utf8;
 
@@ -0,0 +1,61 @@
+package net.thumbtack.school.notes.cache;
+
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Version counters behind the ETags of notes, note comments and the section list.
+ * Counters are bumped only after commit, so an ETag never runs ahead of the data a reader can see.
+ * The server epoch keeps ETags issued before a restart from matching.
+ */
+@Component
+public class EntityVersions {
+
+    private final long epoch = System.currentTimeMillis();
+    private final AtomicLong sections = new AtomicLong();
+    private final AtomicLong sectionDeletions = new AtomicLong();
+    private final Map<Integer, Long> notes = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> comments = new ConcurrentHashMap<>();
+
+    public void noteChanged(int noteId) {
+        AfterCommit.run(() -> notes.merge(noteId, 1L, Long::sum));
+    }
+
+    public void commentsChanged(int noteId) {
+        AfterCommit.run(() -> comments.merge(noteId, 1L, Long::sum));
+    }
+
+    public void sectionsChanged() {
+        AfterCommit.run(sections::incrementAndGet);
+    }
+
+    public void sectionDeleted() {
+        AfterCommit.run(() -> {
+            sections.incrementAndGet();
+            sectionDeletions.incrementAndGet();
+        });
+    }
+
+    public String noteETag(int noteId) {
+        return "\"n" + epoch + "-" + sectionDeletions.get() + "-" + notes.getOrDefault(noteId, 0L) + "\"";
+    }
+
+    public String commentsETag(int noteId) {
+        return "\"c" + epoch + "-" + sectionDeletions.get() + "-" + notes.getOrDefault(noteId, 0L) + "-"
+                + comments.getOrDefault(noteId, 0L) + "\"";
+    }
+
+    public String sectionsETag() {
+        return "\"s" + epoch + "-" + sections.get() + "\"";
+    }
+
+    public void clear() {
+        sections.incrementAndGet();
+        sectionDeletions.incrementAndGet();
+        notes.clear();
+        comments.clear();
+    }
+}
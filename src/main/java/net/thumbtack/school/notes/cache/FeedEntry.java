@@ -0,0 +1,14 @@
+package net.thumbtack.school.notes.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class FeedEntry {
+    private long seq;
+    private int noteId;
+    private int authorId;
+}
@@ -0,0 +1,198 @@
+package net.thumbtack.school.notes.cache;
+
+import net.thumbtack.school.notes.index.FollowGraph;
+import net.thumbtack.school.notes.index.SortedIntSet;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Home timelines of the users who read their feed: a bounded ring of the newest note events per reader,
+ * pushed after commit when a followed author creates, revises or transfers a note.
+ * Events of authors with more than feed_fanout_limit followers go to the author's own ring instead,
+ * which every follower merges in when reading. Sequence numbers are milliseconds shifted by SEQ_SHIFT,
+ * so live events and notes backfilled by their creation time share one order.
+ */
+@Component
+public class FeedTimelines {
+
+    private static final int SEQ_SHIFT = 12;
+
+    private final FollowGraph followGraph;
+    private final Map<Integer, Ring> timelines = new ConcurrentHashMap<>();
+    private final Map<Integer, Ring> outboxes = new ConcurrentHashMap<>();
+    private final AtomicLong lastSeq = new AtomicLong();
+
+    @Value("${feed_timeline_capacity}")
+    private int capacity;
+
+    @Value("${feed_fanout_limit}")
+    private int fanoutLimit;
+
+    @Autowired
+    public FeedTimelines(FollowGraph followGraph) {
+        this.followGraph = followGraph;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public static long seqOf(LocalDateTime time) {
+        return time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli() << SEQ_SHIFT;
+    }
+
+    public void noteChanged(int authorId, int noteId) {
+        AfterCommit.run(() -> publish(authorId, noteId));
+    }
+
+    public void noteDeleted(int noteId) {
+        AfterCommit.run(() -> {
+            for (Ring timeline : timelines.values()) {
+                timeline.remove(noteId);
+            }
+            for (Ring outbox : outboxes.values()) {
+                outbox.remove(noteId);
+            }
+        });
+    }
+
+    /**
+     * Creates the reader's timeline if it doesn't exist yet. Returns true if the caller has to backfill it.
+     */
+    public boolean open(int userId) {
+        return timelines.putIfAbsent(userId, new Ring(capacity)) == null;
+    }
+
+    public void close(int userId) {
+        timelines.remove(userId);
+    }
+
+    public void backfill(int userId, List<FeedEntry> entries) {
+        Ring timeline = timelines.get(userId);
+        if (timeline != null) {
+            timeline.merge(entries);
+        }
+    }
+
+    /**
+     * Newest event of each note by an author the reader follows now, newest first, older than beforeSeq if given.
+     */
+    public List<FeedEntry> page(int userId, Long beforeSeq, int count) {
+        SortedIntSet followings = followGraph.getFollowings(userId);
+        List<FeedEntry> entries = new ArrayList<>();
+        Ring timeline = timelines.get(userId);
+        if (timeline != null) {
+            timeline.copyTo(entries);
+        }
+        for (Integer authorId : followings.toList()) {
+            Ring outbox = outboxes.get(authorId);
+            if (outbox != null) {
+                outbox.copyTo(entries);
+            }
+        }
+        entries.sort(Comparator.comparingLong(FeedEntry::getSeq).reversed());
+
+        Set<Integer> seen = new HashSet<>();
+        List<FeedEntry> page = new ArrayList<>();
+        for (FeedEntry entry : entries) {
+            if (page.size() == count) {
+                break;
+            }
+            if (!followings.contains(entry.getAuthorId()) || !seen.add(entry.getNoteId())) {
+                continue;
+            }
+            if (beforeSeq == null || entry.getSeq() < beforeSeq) {
+                page.add(entry);
+            }
+        }
+        return page;
+    }
+
+    public void clear() {
+        timelines.clear();
+        outboxes.clear();
+    }
+
+    private void publish(int authorId, int noteId) {
+        long seq = lastSeq.updateAndGet(last -> Math.max(last + 1, System.currentTimeMillis() << SEQ_SHIFT));
+        if (followGraph.countFollowers(authorId) > fanoutLimit) {
+            outboxes.computeIfAbsent(authorId, key -> new Ring(capacity)).push(seq, noteId, authorId);
+            return;
+        }
+        for (Integer followerId : followGraph.getFollowers(authorId).toList()) {
+            Ring timeline = timelines.get(followerId);
+            if (timeline != null) {
+                timeline.push(seq, noteId, authorId);
+            }
+        }
+    }
+
+    private static class Ring {
+
+        private final long[] seqs;
+        private final int[] noteIds;
+        private final int[] authorIds;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            seqs = new long[capacity];
+            noteIds = new int[capacity];
+            authorIds = new int[capacity];
+        }
+
+        synchronized void push(long seq, int noteId, int authorId) {
+            seqs[next] = seq;
+            noteIds[next] = noteId;
+            authorIds[next] = authorId;
+            next = (next + 1) % seqs.length;
+            size = Math.min(size + 1, seqs.length);
+        }
+
+        synchronized void copyTo(List<FeedEntry> entries) {
+            for (int i = 1; i <= size; i++) {
+                int pos = (next - i + seqs.length) % seqs.length;
+                entries.add(new FeedEntry(seqs[pos], noteIds[pos], authorIds[pos]));
+            }
+        }
+
+        synchronized void remove(int noteId) {
+            List<FeedEntry> entries = new ArrayList<>();
+            copyTo(entries);
+            next = 0;
+            size = 0;
+            for (int i = entries.size() - 1; i >= 0; i--) {
+                FeedEntry entry = entries.get(i);
+                if (entry.getNoteId() != noteId) {
+                    push(entry.getSeq(), entry.getNoteId(), entry.getAuthorId());
+                }
+            }
+        }
+
+        /**
+         * Adds older entries, keeping the newest capacity entries of both.
+         */
+        synchronized void merge(List<FeedEntry> older) {
+            List<FeedEntry> entries = new ArrayList<>(older);
+            copyTo(entries);
+            entries.sort(Comparator.comparingLong(FeedEntry::getSeq));
+            next = 0;
+            size = 0;
+            for (FeedEntry entry : entries.subList(Math.max(0, entries.size() - seqs.length), entries.size())) {
+                push(entry.getSeq(), entry.getNoteId(), entry.getAuthorId());
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package net.thumbtack.school.notes.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-key invalidation generations of a cache filled by readers that race with writers: a value read after
+ * stamp() may be cached only if its key was not invalidated since. Past MAX_TRACKED keys the generations are
+ * dropped and every older stamp is rejected instead. Not thread-safe, guarded by the owning cache.
+ */
+class InvalidationStamps {
+
+    private static final int MAX_TRACKED = 10000;
+
+    private final Map<Integer, Long> invalidatedAt = new HashMap<>();
+    private long generation;
+    private long floor;
+
+    long stamp() {
+        return generation;
+    }
+
+    void invalidate(int key) {
+        generation++;
+        invalidatedAt.put(key, generation);
+        if (invalidatedAt.size() > MAX_TRACKED) {
+            invalidateAll();
+        }
+    }
+
+    void invalidateAll() {
+        generation++;
+        invalidatedAt.clear();
+        floor = generation;
+    }
+
+    boolean isStale(int key, long stamp) {
+        if (stamp < floor) {
+            return true;
+        }
+        Long invalidated = invalidatedAt.get(key);
+        return invalidated != null && invalidated > stamp;
+    }
+}
@@ -0,0 +1,139 @@
+package net.thumbtack.school.notes.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.dto.responses.note.GetNoteInfoDtoResponse;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of assembled note info responses, bounded by the approximate size of the cached strings.
+ * A response loaded before an invalidation of its note is not cached, so a racing read cannot resurrect stale data.
+ */
+@Slf4j
+@Component
+public class NoteInfoCache {
+
+    private static final long ENTRY_OVERHEAD_BYTES = 128;
+
+    private final long maxWeight;
+    private final LinkedHashMap<Integer, GetNoteInfoDtoResponse> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final InvalidationStamps stamps = new InvalidationStamps();
+
+    private long weight;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public NoteInfoCache(@Value("${note_info_cache_max_bytes}") long maxWeight) {
+        this.maxWeight = maxWeight;
+    }
+
+    public synchronized GetNoteInfoDtoResponse get(int noteId) {
+        GetNoteInfoDtoResponse response = entries.get(noteId);
+        if (response == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(response);
+    }
+
+    /**
+     * Take before the first database read of the response, so that it precedes the reader's snapshot.
+     */
+    public synchronized long stamp() {
+        return stamps.stamp();
+    }
+
+    public synchronized void put(GetNoteInfoDtoResponse response, long stamp) {
+        if (stamps.isStale(response.getId(), stamp)) {
+            return;
+        }
+        remove(response.getId());
+        long entryWeight = weigh(response);
+        if (entryWeight > maxWeight) {
+            return;
+        }
+        entries.put(response.getId(), copy(response));
+        weight += entryWeight;
+        Iterator<Map.Entry<Integer, GetNoteInfoDtoResponse>> eldest = entries.entrySet().iterator();
+        while (weight > maxWeight) {
+            Map.Entry<Integer, GetNoteInfoDtoResponse> entry = eldest.next();
+            log.debug("Evict note {} from cache", entry.getKey());
+            weight -= weigh(entry.getValue());
+            eldest.remove();
+            evictions++;
+        }
+    }
+
+    public synchronized void invalidate(int noteId) {
+        stamps.invalidate(noteId);
+        remove(noteId);
+    }
+
+    /**
+     * Deleting a section is rare, so it rejects every fill in flight rather than tracking the section's notes.
+     */
+    public synchronized void invalidateSection(int sectionId) {
+        stamps.invalidateAll();
+        Iterator<GetNoteInfoDtoResponse> it = entries.values().iterator();
+        while (it.hasNext()) {
+            GetNoteInfoDtoResponse response = it.next();
+            if (response.getSectionId() == sectionId) {
+                weight -= weigh(response);
+                it.remove();
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        stamps.invalidateAll();
+        entries.clear();
+        weight = 0;
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    private void remove(int noteId) {
+        GetNoteInfoDtoResponse removed = entries.remove(noteId);
+        if (removed != null) {
+            weight -= weigh(removed);
+        }
+    }
+
+    private static long weigh(GetNoteInfoDtoResponse response) {
+        return ENTRY_OVERHEAD_BYTES + 2L * (response.getSubject().length() + response.getBody().length()
+                + response.getCreated().length());
+    }
+
+    private static GetNoteInfoDtoResponse copy(GetNoteInfoDtoResponse response) {
+        return new GetNoteInfoDtoResponse(response.getId(), response.getSubject(), response.getBody(),
+                response.getSectionId(), response.getAuthorId(), response.getCreated(), response.getRevisionId());
+    }
+}
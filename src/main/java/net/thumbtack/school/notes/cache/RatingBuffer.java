@@ -0,0 +1,152 @@
+package net.thumbtack.school.notes.cache;
+
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Note ratings not yet written to the database, as exact per-note sums and counts.
+ * Notes are spread over lock stripes, so raters of different notes rarely contend.
+ */
+@Component
+public class RatingBuffer {
+
+    private static final int STRIPES = 64;
+
+    private static class Stripe {
+        private final Map<Integer, RatingDelta> pending = new HashMap<>();
+        private final Map<Integer, RatingDelta> inFlight = new HashMap<>();
+    }
+
+    private final Stripe[] stripes = new Stripe[STRIPES];
+
+    public RatingBuffer() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Stripe();
+        }
+    }
+
+    public void rate(int noteId, int rating) {
+        Stripe stripe = stripe(noteId);
+        synchronized (stripe) {
+            add(stripe.pending, noteId, rating, 1);
+        }
+    }
+
+    /**
+     * Returns the ratings of the note that a reader of the database does not see yet, pending or being flushed.
+     */
+    public RatingDelta unflushed(int noteId) {
+        Stripe stripe = stripe(noteId);
+        synchronized (stripe) {
+            RatingDelta result = new RatingDelta();
+            RatingDelta pending = stripe.pending.get(noteId);
+            if (pending != null) {
+                result.setSum(pending.getSum());
+                result.setCount(pending.getCount());
+            }
+            RatingDelta inFlight = stripe.inFlight.get(noteId);
+            if (inFlight != null) {
+                result.setSum(result.getSum() + inFlight.getSum());
+                result.setCount(result.getCount() + inFlight.getCount());
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Same as unflushed(noteId), for every note that has such ratings.
+     */
+    public Map<Integer, RatingDelta> unflushed() {
+        Map<Integer, RatingDelta> unflushed = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<Integer, RatingDelta> entry : stripe.pending.entrySet()) {
+                    add(unflushed, entry.getKey(), entry.getValue().getSum(), entry.getValue().getCount());
+                }
+                for (Map.Entry<Integer, RatingDelta> entry : stripe.inFlight.entrySet()) {
+                    add(unflushed, entry.getKey(), entry.getValue().getSum(), entry.getValue().getCount());
+                }
+            }
+        }
+        return unflushed;
+    }
+
+    public void discard(int noteId) {
+        Stripe stripe = stripe(noteId);
+        synchronized (stripe) {
+            stripe.pending.remove(noteId);
+            stripe.inFlight.remove(noteId);
+        }
+    }
+
+    /**
+     * Moves all pending ratings to the in-flight set; they stay visible to unflushed
+     * until the caller reports them written with completeFlush or returns them with restore.
+     */
+    public Map<Integer, RatingDelta> drain() {
+        Map<Integer, RatingDelta> drained = new HashMap<>();
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<Integer, RatingDelta> entry : stripe.pending.entrySet()) {
+                    RatingDelta delta = entry.getValue();
+                    add(stripe.inFlight, entry.getKey(), delta.getSum(), delta.getCount());
+                    drained.put(entry.getKey(), delta);
+                }
+                stripe.pending.clear();
+            }
+        }
+        return drained;
+    }
+
+    public void completeFlush(Map<Integer, RatingDelta> flushed) {
+        for (Map.Entry<Integer, RatingDelta> entry : flushed.entrySet()) {
+            Stripe stripe = stripe(entry.getKey());
+            synchronized (stripe) {
+                RatingDelta delta = entry.getValue();
+                add(stripe.inFlight, entry.getKey(), -delta.getSum(), -delta.getCount());
+            }
+        }
+    }
+
+    public void restore(Map<Integer, RatingDelta> notFlushed) {
+        for (Map.Entry<Integer, RatingDelta> entry : notFlushed.entrySet()) {
+            Stripe stripe = stripe(entry.getKey());
+            synchronized (stripe) {
+                RatingDelta delta = entry.getValue();
+                add(stripe.pending, entry.getKey(), delta.getSum(), delta.getCount());
+                add(stripe.inFlight, entry.getKey(), -delta.getSum(), -delta.getCount());
+            }
+        }
+    }
+
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.pending.clear();
+                stripe.inFlight.clear();
+            }
+        }
+    }
+
+    private Stripe stripe(int noteId) {
+        return stripes[noteId & (STRIPES - 1)];
+    }
+
+    private static void add(Map<Integer, RatingDelta> deltas, int noteId, long sum, long count) {
+        RatingDelta delta = deltas.get(noteId);
+        if (delta == null) {
+            if (count < 0) {
+                return;
+            }
+            delta = new RatingDelta();
+            deltas.put(noteId, delta);
+        }
+        delta.setSum(delta.getSum() + sum);
+        delta.setCount(delta.getCount() + count);
+        if (delta.getCount() == 0) {
+            deltas.remove(noteId);
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package net.thumbtack.school.notes.cache;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class RatingDelta {
+    private long sum;
+    private long count;
+
+    /**
+     * The rating of a note with the given stored sum and count once this delta is added, rounded as the note table does.
+     */
+    public BigDecimal applyTo(long ratingSum, long numberOfRatings) {
+        long total = numberOfRatings + count;
+        if (total == 0) {
+            return BigDecimal.ZERO;
+        }
+        return BigDecimal.valueOf(ratingSum + sum).divide(BigDecimal.valueOf(total), 4, RoundingMode.HALF_UP);
+    }
+}
@@ -0,0 +1,67 @@
+package net.thumbtack.school.notes.cache;
+
+import net.thumbtack.school.notes.model.Section;
+import net.thumbtack.school.notes.model.User;
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * All sections as an immutable snapshot that is replaced atomically on every change.
+ * Callers get copies, so the snapshot itself is never mutated.
+ */
+@Component
+public class SectionCatalog {
+
+    private final AtomicReference<SortedMap<Integer, Section>> snapshot =
+            new AtomicReference<>(Collections.unmodifiableSortedMap(new TreeMap<>()));
+
+    public Section get(int sectionId) {
+        Section section = snapshot.get().get(sectionId);
+        return section == null ? null : copy(section);
+    }
+
+    public List<Section> getAll() {
+        List<Section> sections = new ArrayList<>();
+        for (Section section : snapshot.get().values()) {
+            sections.add(copy(section));
+        }
+        return sections;
+    }
+
+    public void load(List<Section> sections) {
+        TreeMap<Integer, Section> map = new TreeMap<>();
+        for (Section section : sections) {
+            map.put(section.getId(), copy(section));
+        }
+        snapshot.set(Collections.unmodifiableSortedMap(map));
+    }
+
+    public void put(Section section) {
+        Section copy = copy(section);
+        snapshot.updateAndGet(current -> {
+            TreeMap<Integer, Section> map = new TreeMap<>(current);
+            map.put(copy.getId(), copy);
+            return Collections.unmodifiableSortedMap(map);
+        });
+    }
+
+    public void remove(int sectionId) {
+        snapshot.updateAndGet(current -> {
+            TreeMap<Integer, Section> map = new TreeMap<>(current);
+            map.remove(sectionId);
+            return Collections.unmodifiableSortedMap(map);
+        });
+    }
+
+    public void clear() {
+        load(Collections.emptyList());
+    }
+
+    private static Section copy(Section section) {
+        User owner = new User();
+        owner.setId(section.getOwner().getId());
+        return new Section(section.getId(), section.getName(), owner, null);
+    }
+}
@@ -0,0 +1,100 @@
+package net.thumbtack.school.notes.cache;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.model.Session;
+import net.thumbtack.school.notes.model.User;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@Slf4j
+@Component
+public class SessionCache {
+
+    private final int maxSize;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            log.debug("Evict Session {} from cache", eldest.getKey());
+            sessionIdByUser.remove(eldest.getValue().user.getId());
+            return true;
+        }
+    };
+    private final Map<Integer, String> sessionIdByUser = new HashMap<>();
+    private final InvalidationStamps stamps = new InvalidationStamps();
+
+    public SessionCache(@Value("${session_cache_size}") int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    public synchronized Session get(String sessionId) {
+        Entry entry = entries.get(sessionId);
+        if (entry == null) {
+            return null;
+        }
+        return new Session(sessionId, entry.lastTouch, entry.user);
+    }
+
+    /**
+     * Take before reading the session from the database and pass to put().
+     */
+    public synchronized long stamp() {
+        return stamps.stamp();
+    }
+
+    /**
+     * Caches a session read after stamp(), unless its user's session was invalidated since.
+     */
+    public synchronized void put(Session session, long stamp) {
+        int userId = session.getUser().getId();
+        if (stamps.isStale(userId, stamp)) {
+            return;
+        }
+        remove(userId);
+        sessionIdByUser.put(userId, session.getSessionId());
+        entries.put(session.getSessionId(), new Entry(session.getUser(), session.getTimeLogin()));
+    }
+
+    public synchronized void touch(int userId, LocalDateTime time) {
+        String sessionId = sessionIdByUser.get(userId);
+        if (sessionId != null) {
+            entries.get(sessionId).lastTouch = time;
+        }
+    }
+
+    public synchronized void invalidateUser(int userId) {
+        stamps.invalidate(userId);
+        remove(userId);
+    }
+
+    public synchronized void clear() {
+        stamps.invalidateAll();
+        entries.clear();
+        sessionIdByUser.clear();
+    }
+
+    private void remove(int userId) {
+        String sessionId = sessionIdByUser.remove(userId);
+        if (sessionId != null) {
+            entries.remove(sessionId);
+        }
+    }
+
+    private static class Entry {
+        private final User user;
+        private LocalDateTime lastTouch;
+
+        Entry(User user, LocalDateTime lastTouch) {
+            this.user = user;
+            this.lastTouch = lastTouch;
+        }
+    }
+}
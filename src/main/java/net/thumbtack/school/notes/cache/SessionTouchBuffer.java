@@ -0,0 +1,81 @@
+package net.thumbtack.school.notes.cache;
+
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Component
+public class SessionTouchBuffer {
+
+    private final ConcurrentHashMap<Integer, LocalDateTime> pending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, LocalDateTime> inFlight = new ConcurrentHashMap<>();
+
+    public void touch(int userId, LocalDateTime time) {
+        pending.merge(userId, time, SessionTouchBuffer::latest);
+    }
+
+    public LocalDateTime lastTouch(int userId) {
+        LocalDateTime pendingTime = pending.get(userId);
+        LocalDateTime inFlightTime = inFlight.get(userId);
+        if (pendingTime == null || inFlightTime == null) {
+            return pendingTime == null ? inFlightTime : pendingTime;
+        }
+        return latest(pendingTime, inFlightTime);
+    }
+
+    public void discard(int userId) {
+        pending.remove(userId);
+        inFlight.remove(userId);
+    }
+
+    /**
+     * Moves all pending touches to the in-flight set; they stay visible to lastTouch
+     * until the caller reports them written with completeFlush or returns them with restore.
+     */
+    public synchronized Map<Integer, LocalDateTime> drain() {
+        Map<Integer, LocalDateTime> drained = new HashMap<>();
+        for (Integer userId : pending.keySet()) {
+            LocalDateTime time = pending.get(userId);
+            while (time != null) {
+                inFlight.merge(userId, time, SessionTouchBuffer::latest);
+                if (pending.remove(userId, time)) {
+                    drained.put(userId, time);
+                    break;
+                }
+                // A touch replaced the value with a later one, which is moved in its place. If the user was
+                // discarded instead, the value just moved is taken back out.
+                LocalDateTime next = pending.get(userId);
+                if (next == null) {
+                    inFlight.remove(userId, time);
+                }
+                time = next;
+            }
+        }
+        return drained;
+    }
+
+    public void completeFlush(Map<Integer, LocalDateTime> flushed) {
+        for (Map.Entry<Integer, LocalDateTime> entry : flushed.entrySet()) {
+            inFlight.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public void restore(Map<Integer, LocalDateTime> notFlushed) {
+        for (Map.Entry<Integer, LocalDateTime> entry : notFlushed.entrySet()) {
+            touch(entry.getKey(), entry.getValue());
+        }
+        completeFlush(notFlushed);
+    }
+
+    public void clear() {
+        pending.clear();
+        inFlight.clear();
+    }
+
+    private static LocalDateTime latest(LocalDateTime first, LocalDateTime second) {
+        return second.isAfter(first) ? second : first;
+    }
+}
@@ -1,11 +1,14 @@
 package net.thumbtack.school.notes.dao;
 
+import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerException;
 import net.thumbtack.school.notes.model.Comment;
 import net.thumbtack.school.notes.model.Note;
 import net.thumbtack.school.notes.model.Revision;
 import net.thumbtack.school.notes.model.Section;
+import org.apache.commons.lang3.tuple.Pair;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -26,8 +29,16 @@ public interface NoteDao {
 
     void createRevision(Revision revision, int noteId);
 
+    List<Revision> getUncompressedRevisions(int afterId, int limit);
+
+    void compressRevision(Revision revision);
+
     Note getNote(int noteId);
 
+    List<Revision> getRevisions(int noteId);
+
+    Revision getRevision(int revisionId);
+
     void transferNote(int noteId, int sectionId) throws ServerException;
 
     void deleteNote(int noteId);
@@ -44,6 +55,11 @@ public interface NoteDao {
 
     void rateNote(int noteId, int rating);
 
-    List<Note> getNoteList(Integer sectionId, SortOrder sortByRating, Integer userId, List<Integer> idUsers,
-                           LocalDateTime timeFrom, LocalDateTime timeTo, List<String> tags, boolean alltags, int from, Integer count);
+    int flushRatings();
+
+    List<Note> getNoteList(Integer sectionId, SortOrder sortByRating, Integer userId, int viewerId, IncludeType include,
+                           LocalDateTime timeFrom, LocalDateTime timeTo, List<String> tags, boolean alltags, int from, Integer count,
+                           PageCursor cursor, boolean allVersions, boolean comments);
+
+    Pair<Long, List<Note>> getFeed(int userId, Long beforeSeq, int count);
 }
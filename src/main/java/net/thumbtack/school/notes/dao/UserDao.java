@@ -1,12 +1,13 @@
 package net.thumbtack.school.notes.dao;
 
-import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
 import net.thumbtack.school.notes.endpoint.request_param.SearchParams;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerException;
 import net.thumbtack.school.notes.model.Session;
 import net.thumbtack.school.notes.model.User;
 import net.thumbtack.school.notes.views.SessionView;
+import net.thumbtack.school.notes.views.UserRatingView;
 import net.thumbtack.school.notes.views.UserView;
 
 import java.time.LocalDateTime;
@@ -20,6 +21,8 @@ public interface UserDao {
 
     SessionView getSessionView(String sessionId, SortOrder sortByRating, int from, Integer count);
 
+    SessionView getSessionView(String sessionId, SortOrder sortByRating, int from, Integer count, PageCursor cursor);
+
     User getUserByLoginAndPassword(String login, String password);
 
     User getUserByLogin(String login);
@@ -38,6 +41,12 @@ public interface UserDao {
 
     void updateSession(int userId, LocalDateTime currentTime);
 
+    int flushSessionTouches();
+
+    List<Integer> deleteExpiredSessions(LocalDateTime expiredBefore, int limit);
+
+    void expireSession(int userId);
+
     void addToFollowing(int userId, int followerId);
 
     void addToIgnore(int userId, int ignoredId);
@@ -46,13 +55,17 @@ public interface UserDao {
 
     void deleteFromIgnore(int userId, int ignoredId);
 
-    List<UserView> getAllUsers(SortOrder sortByRating, int from, Integer count);
+    List<UserView> getAllUsers(SortOrder sortByRating, int from, Integer count, PageCursor cursor);
+
+    List<UserView> getUsersWithHighOrLowRating(SearchParams type, SortOrder sortByRating, int from, Integer count, PageCursor cursor);
+
+    List<UserView> getRelatedUsers(int userId, SearchParams type, SortOrder sortByRating, int from, Integer count, PageCursor cursor);
 
-    List<UserView> getUsersWithHighOrLowRating(SearchParams type, SortOrder sortByRating, int from, Integer count);
+    List<UserView> getDeletedUsers(SortOrder sortByRating, int from, Integer count, PageCursor cursor);
 
-    List<UserView> getDeletedUsers(SortOrder sortByRating, int from, Integer count);
+    List<UserView> getSuperUsers(SortOrder sortByRating, int from, Integer count, PageCursor cursor);
 
-    List<UserView> getSuperUsers(SortOrder sortByRating, int from, Integer count);
+    int getMaxUserId();
 
-    List<Integer> getIdUsers(int userId, IncludeType include);
+    List<UserRatingView> getUserRatingDrift(int fromId, int toId);
 }
\ No newline at end of file
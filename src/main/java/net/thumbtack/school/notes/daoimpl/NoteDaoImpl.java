@@ -1,32 +1,112 @@
 package net.thumbtack.school.notes.daoimpl;
 
 import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.cache.AfterCommit;
+import net.thumbtack.school.notes.cache.FeedEntry;
+import net.thumbtack.school.notes.cache.FeedTimelines;
+import net.thumbtack.school.notes.cache.NoteInfoCache;
+import net.thumbtack.school.notes.cache.RatingBuffer;
+import net.thumbtack.school.notes.cache.RatingDelta;
+import net.thumbtack.school.notes.cache.SectionCatalog;
 import net.thumbtack.school.notes.dao.NoteDao;
+import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerErrorCode;
 import net.thumbtack.school.notes.exception.ServerException;
+import net.thumbtack.school.notes.index.RatingLeaderboard;
+import net.thumbtack.school.notes.index.SortedIntSet;
+import net.thumbtack.school.notes.index.TagIndex;
+import net.thumbtack.school.notes.jobs.ChunkExecutor;
 import net.thumbtack.school.notes.mapper.NoteMapper;
+import net.thumbtack.school.notes.mapper.RevisionDelta;
+import net.thumbtack.school.notes.mapper.typehandler.RevisionBodyTypeHandler;
 import net.thumbtack.school.notes.model.Comment;
 import net.thumbtack.school.notes.model.Note;
 import net.thumbtack.school.notes.model.Revision;
 import net.thumbtack.school.notes.model.Section;
+import net.thumbtack.school.notes.model.User;
+import net.thumbtack.school.notes.views.UserView;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Service
 public class NoteDaoImpl implements NoteDao {
 
+    private static final int TAG_INDEX_LOAD_CHUNK = 1000;
+
     private final NoteMapper noteMapper;
+    private final TagIndex tagIndex;
+    private final NoteInfoCache noteInfoCache;
+    private final SectionCatalog sectionCatalog;
+    private final RatingBuffer ratingBuffer;
+    private final RatingLeaderboard ratingLeaderboard;
+    private final FeedTimelines feedTimelines;
+    private final ChunkExecutor chunkExecutor;
+
+    @Value("${tag_index_max_candidates}")
+    private int tagIndexMaxCandidates;
+
+    @Value("${rating_flush_batch_size}")
+    private int ratingFlushBatchSize;
+
+    @Value("${revision_snapshot_interval}")
+    private int revisionSnapshotInterval;
 
     @Autowired
-    public NoteDaoImpl(NoteMapper noteMapper) {
+    public NoteDaoImpl(NoteMapper noteMapper, TagIndex tagIndex, NoteInfoCache noteInfoCache,
+                       SectionCatalog sectionCatalog, RatingBuffer ratingBuffer,
+                       RatingLeaderboard ratingLeaderboard, FeedTimelines feedTimelines,
+                       ChunkExecutor chunkExecutor) {
         this.noteMapper = noteMapper;
+        this.tagIndex = tagIndex;
+        this.noteInfoCache = noteInfoCache;
+        this.sectionCatalog = sectionCatalog;
+        this.ratingBuffer = ratingBuffer;
+        this.ratingLeaderboard = ratingLeaderboard;
+        this.feedTimelines = feedTimelines;
+        this.chunkExecutor = chunkExecutor;
+    }
+
+    @PostConstruct
+    public void loadSectionCatalog() {
+        sectionCatalog.load(noteMapper.getAllSection());
+    }
+
+    @PostConstruct
+    public void loadTagIndex() {
+        long start = System.currentTimeMillis();
+        int maxId = noteMapper.getMaxNoteId();
+        int chunks = maxId / TAG_INDEX_LOAD_CHUNK + 1;
+        chunkExecutor.forEachChunk(chunks, chunk -> {
+            for (Note note : noteMapper.getCurrentBodies(chunk * TAG_INDEX_LOAD_CHUNK + 1,
+                    (chunk + 1) * TAG_INDEX_LOAD_CHUNK)) {
+                tagIndex.index(note.getId(), note.getCurrentRevision().getBody());
+            }
+        });
+        tagIndex.recordBuild(System.currentTimeMillis() - start);
+        log.info("Indexed {} notes with {} trigrams in {} ms", tagIndex.noteCount(), tagIndex.trigramCount(),
+                tagIndex.getLastBuildMillis());
     }
 
     public void createSection(Section section, int ownerId) throws ServerException {
@@ -37,16 +117,20 @@ public class NoteDaoImpl implements NoteDao {
             log.info("Cannot insert section, because supplied name already busy");
             throw new ServerException(ServerErrorCode.SECTION_NAME_ALREADY_BUSY);
         }
+        User owner = new User();
+        owner.setId(ownerId);
+        Section created = new Section(section.getId(), section.getName(), owner, null);
+        AfterCommit.run(() -> sectionCatalog.put(created));
     }
 
     public Section getSection(int sectionId) {
         log.debug("Dao get section with id {}", sectionId);
-        return noteMapper.getSection(sectionId);
+        return sectionCatalog.get(sectionId);
     }
 
     public List<Section> getSectionList() {
         log.debug("Dao get all sections");
-        return noteMapper.getAllSection();
+        return sectionCatalog.getAll();
     }
 
     public void renameSection(Section section, String newName) throws ServerException {
@@ -57,11 +141,21 @@ public class NoteDaoImpl implements NoteDao {
             log.info("Cannot rename section, because supplied name already busy");
             throw new ServerException(ServerErrorCode.SECTION_NAME_ALREADY_BUSY);
         }
+        Section renamed = new Section(section.getId(), newName, section.getOwner(), null);
+        AfterCommit.run(() -> sectionCatalog.put(renamed));
     }
 
     public void deleteSection(int sectionId) {
         log.debug("Dao delete Section with sectionId {}", sectionId);
+        List<Integer> ownerIds = noteMapper.getSectionNoteOwners(sectionId);
+        noteMapper.removeSectionNotesFromOwners(sectionId);
         noteMapper.deleteSection(sectionId);
+        refreshOwnerRatings(ownerIds);
+        noteInfoCache.invalidateSection(sectionId);
+        AfterCommit.run(() -> {
+            noteInfoCache.invalidateSection(sectionId);
+            sectionCatalog.remove(sectionId);
+        });
     }
 
     public void createNote(Note note, int ownerId, int sectionId) throws ServerException {
@@ -72,22 +166,79 @@ public class NoteDaoImpl implements NoteDao {
             log.info("Cannot create note, because this sectionId eas not fount in DB");
             throw new ServerException(ServerErrorCode.THIS_SECTION_ID_NOT_FOUND);
         }
+        noteMapper.addNoteToOwner(ownerId);
+        refreshOwnerRatings(Collections.singletonList(ownerId));
     }
 
     public void createRevision(Revision revision, int noteId) {
         log.debug("Dao insert Revision {} with noteId {}", revision, noteId);
+        noteMapper.incrementRevisionCount(noteId);
+        Revision previous = noteMapper.getCurrentRevisionForUpdate(noteId);
         noteMapper.insertRevision(revision, noteId);
+        noteMapper.updateCurrentRevision(noteId, revision.getId());
+        if (previous != null) {
+            storeSupersededRevision(previous, revision.getBody());
+        }
+        invalidateNoteInfo(noteId);
+        String body = revision.getBody();
+        AfterCommit.run(() -> tagIndex.index(noteId, body));
+    }
+
+    private void storeSupersededRevision(Revision previous, String nextBody) {
+        if (!RevisionDelta.isSnapshot(previous.getRevisionIdForNote(), revisionSnapshotInterval)) {
+            String delta = RevisionDelta.encode(previous.getBody(), nextBody);
+            if (delta.length() < previous.getBody().length()) {
+                noteMapper.storeRevisionDelta(previous.getId(), delta);
+                return;
+            }
+        }
+        if (RevisionBodyTypeHandler.isCompressible(previous.getBody())) {
+            noteMapper.storeRevisionBody(previous.getId(), previous.getBody());
+        }
+    }
+
+    public List<Revision> getUncompressedRevisions(int afterId, int limit) {
+        log.debug("Dao get {} uncompressed revisions after id {}", limit, afterId);
+        return noteMapper.getUncompressedRevisions(afterId, RevisionBodyTypeHandler.COMPRESS_THRESHOLD,
+                RevisionBodyTypeHandler.MARKER, limit);
+    }
+
+    public void compressRevision(Revision revision) {
+        log.debug("Dao compress revision with id {}", revision.getId());
+        noteMapper.storeRevisionBody(revision.getId(), revision.getBody());
     }
 
     public Note getNote(int noteId) {
         log.debug("Dao get note with id {}", noteId);
-        return noteMapper.getNote(noteId);
+        Note note = noteMapper.getNote(noteId);
+        if (note != null) {
+            RatingDelta unflushed = ratingBuffer.unflushed(noteId);
+            note.setRating(unflushed.applyTo(note.getRatingSum(), note.getNumberOfRatings()).doubleValue());
+        }
+        return note;
+    }
+
+    public List<Revision> getRevisions(int noteId) {
+        log.debug("Dao get revisions of note with id {}", noteId);
+        List<Revision> revisions = noteMapper.getRevisions(noteId);
+        decodeRevisions(revisions);
+        return revisions;
+    }
+
+    public Revision getRevision(int revisionId) {
+        log.debug("Dao get revision with id {}", revisionId);
+        Revision revision = noteMapper.getRevision(revisionId);
+        if (revision != null) {
+            decodeRevisions(Collections.singletonList(revision));
+        }
+        return revision;
     }
 
     public void transferNote(int noteId, int sectionId) throws ServerException {
         log.debug("Dao transfer Note with noteId {} in section with sectionId {}", noteId, sectionId);
         try {
             noteMapper.transferNote(noteId, sectionId);
+            invalidateNoteInfo(noteId);
         } catch (DataIntegrityViolationException ex) {
             log.info("Cannot transfer note, because this sectionId eas not fount in DB");
             throw new ServerException(ServerErrorCode.THIS_SECTION_ID_NOT_FOUND);
@@ -96,7 +247,17 @@ public class NoteDaoImpl implements NoteDao {
 
     public void deleteNote(int noteId) {
         log.debug("Dao delete Note with noteId {}", noteId);
+        Integer ownerId = noteMapper.getNoteOwner(noteId);
+        noteMapper.removeNoteFromOwner(noteId);
         noteMapper.deleteNote(noteId);
+        if (ownerId != null) {
+            refreshOwnerRatings(Collections.singletonList(ownerId));
+        }
+        invalidateNoteInfo(noteId);
+        AfterCommit.run(() -> {
+            tagIndex.remove(noteId);
+            ratingBuffer.discard(noteId);
+        });
     }
 
     public void createComment(Comment comment, int ownerId, int revisionId) {
@@ -126,13 +287,275 @@ public class NoteDaoImpl implements NoteDao {
 
     public void rateNote(int noteId, int rating) {
         log.debug("Dao rate note with id {}", noteId);
-        noteMapper.rateNote(noteId, rating);
+        AfterCommit.run(() -> ratingBuffer.rate(noteId, rating));
+    }
+
+    @Transactional(rollbackFor = Exception.class)
+    public int flushRatings() {
+        Map<Integer, RatingDelta> ratings = ratingBuffer.drain();
+        List<Integer> noteIds = new ArrayList<>(ratings.keySet());
+        for (int i = 0; i < noteIds.size(); i += ratingFlushBatchSize) {
+            Map<Integer, RatingDelta> batch = new HashMap<>();
+            for (Integer noteId : noteIds.subList(i, Math.min(i + ratingFlushBatchSize, noteIds.size()))) {
+                batch.put(noteId, ratings.get(noteId));
+            }
+            log.debug("Dao flush ratings of {} notes", batch.size());
+            try {
+                addRatings(batch);
+            } catch (RuntimeException ex) {
+                log.info("Cannot flush note ratings, they will be retried on the next flush");
+                Map<Integer, RatingDelta> notFlushed = new HashMap<>();
+                for (Integer noteId : noteIds.subList(i, noteIds.size())) {
+                    notFlushed.put(noteId, ratings.get(noteId));
+                }
+                ratingBuffer.restore(notFlushed);
+                throw ex;
+            }
+            AfterCommit.run(() -> ratingBuffer.completeFlush(batch), () -> ratingBuffer.restore(batch));
+        }
+        return ratings.size();
     }
 
-    public List<Note> getNoteList(Integer sectionId, SortOrder sortByRating, Integer userId, List<Integer> idUsers,
-                                  LocalDateTime timeFrom, LocalDateTime timeTo, List<String> tags, boolean alltags,
-                                  int from, Integer count) {
+    /**
+     * Adds the ratings to the notes and the resulting change of each note's rating to its owner's sum.
+     * The notes stay locked between reading the old and the new ratings.
+     */
+    private void addRatings(Map<Integer, RatingDelta> ratings) {
+        Map<Integer, Note> before = new HashMap<>();
+        for (Note note : noteMapper.getRatingsForUpdate(ratings.keySet())) {
+            before.put(note.getId(), note);
+        }
+        if (before.isEmpty()) {
+            return;
+        }
+        noteMapper.addRatings(ratings);
+        Map<Integer, BigDecimal> ownerDeltas = new HashMap<>();
+        for (Note note : noteMapper.getRatingsForUpdate(ratings.keySet())) {
+            BigDecimal delta = exact(note.getRating()).subtract(exact(before.get(note.getId()).getRating()));
+            ownerDeltas.merge(note.getOwner().getId(), delta, BigDecimal::add);
+        }
+        noteMapper.addOwnerRatings(ownerDeltas);
+        refreshOwnerRatings(ownerDeltas.keySet());
+    }
+
+    /**
+     * Reads the owners' new ratings inside the transaction and moves them in the leaderboard only once it commits,
+     * so the shared leaderboard never shows ratings that may still roll back.
+     */
+    private void refreshOwnerRatings(Collection<Integer> ownerIds) {
+        if (ownerIds.isEmpty()) {
+            return;
+        }
+        List<UserView> owners = noteMapper.getOwnerRatings(ownerIds);
+        AfterCommit.run(() -> {
+            for (UserView owner : owners) {
+                ratingLeaderboard.put(owner.getId(), owner.getRating());
+            }
+        });
+    }
+
+    private static BigDecimal exact(double rating) {
+        return BigDecimal.valueOf(rating).setScale(4, RoundingMode.HALF_UP);
+    }
+
+    private void invalidateNoteInfo(int noteId) {
+        noteInfoCache.invalidate(noteId);
+        AfterCommit.run(() -> noteInfoCache.invalidate(noteId));
+    }
+
+    public List<Note> getNoteList(Integer sectionId, SortOrder sortByRating, Integer userId, int viewerId,
+                                  IncludeType include, LocalDateTime timeFrom, LocalDateTime timeTo, List<String> tags,
+                                  boolean alltags, int from, Integer count, PageCursor cursor, boolean allVersions,
+                                  boolean comments) {
         log.debug("Dao get Note List");
-        return noteMapper.getNoteList(sectionId, sortByRating, userId, idUsers, timeFrom, timeTo, tags, alltags, from, count);
+        List<Integer> noteIds = null;
+        if (tags != null) {
+            SortedIntSet candidates = tagIndex.candidates(tags, alltags);
+            if (candidates != null && candidates.isEmpty()) {
+                return new ArrayList<>();
+            }
+            if (candidates != null && candidates.size() <= tagIndexMaxCandidates) {
+                noteIds = candidates.toList();
+            }
+        }
+        Double cursorRating = cursor == null ? null : cursor.getRating();
+        Integer cursorId = cursor == null ? null : cursor.getId();
+        Map<Integer, RatingDelta> unflushed = sortByRating == SortOrder.NONE
+                ? Collections.emptyMap() : ratingBuffer.unflushed();
+        List<Note> notes;
+        if (unflushed.isEmpty()) {
+            notes = noteMapper.getNoteList(sectionId, sortByRating, userId, viewerId, include, timeFrom, timeTo,
+                    tags, alltags, from, count, cursorRating, cursorId, noteIds, null);
+        } else {
+            notes = getNoteListWithUnflushed(sectionId, sortByRating, userId, viewerId, include, timeFrom, timeTo,
+                    tags, alltags, from, count, cursorRating, cursorId, noteIds, unflushed);
+        }
+        attachRevisions(notes, allVersions, comments);
+        return notes;
+    }
+
+    /**
+     * Rating-sorted page that places the notes with unflushed ratings where they will be once those are flushed.
+     * The other notes are paged in SQL as usual; these are read apart, without locks, and merged in.
+     */
+    private List<Note> getNoteListWithUnflushed(Integer sectionId, SortOrder sortByRating, Integer userId, int viewerId,
+                                                IncludeType include, LocalDateTime timeFrom, LocalDateTime timeTo,
+                                                List<String> tags, boolean alltags, int from, Integer count,
+                                                Double cursorRating, Integer cursorId, List<Integer> noteIds,
+                                                Map<Integer, RatingDelta> unflushed) {
+        List<Integer> ratedIds = new ArrayList<>(unflushed.keySet());
+        if (noteIds != null) {
+            ratedIds.retainAll(new HashSet<>(noteIds));
+        }
+        List<Note> notes = noteMapper.getNoteList(sectionId, sortByRating, userId, viewerId, include, timeFrom, timeTo,
+                tags, alltags, 0, count == null ? null : from + count, cursorRating, cursorId, noteIds,
+                unflushed.keySet());
+        if (!ratedIds.isEmpty()) {
+            for (Note note : noteMapper.getNoteList(sectionId, SortOrder.NONE, userId, viewerId, include, timeFrom,
+                    timeTo, tags, alltags, 0, null, null, null, ratedIds, null)) {
+                RatingDelta delta = unflushed.get(note.getId());
+                note.setRating(delta.applyTo(note.getRatingSum(), note.getNumberOfRatings()).doubleValue());
+                if (cursorId == null || isAfter(note, sortByRating, cursorRating, cursorId)) {
+                    notes.add(note);
+                }
+            }
+        }
+        notes.sort(ratingOrder(sortByRating));
+        int to = count == null ? notes.size() : Math.min(notes.size(), from + count);
+        return from >= to ? new ArrayList<>() : new ArrayList<>(notes.subList(from, to));
+    }
+
+    private static Comparator<Note> ratingOrder(SortOrder sortByRating) {
+        Comparator<Note> order = Comparator.comparingDouble(Note::getRating).thenComparingInt(Note::getId);
+        return sortByRating == SortOrder.DESC ? order.reversed() : order;
+    }
+
+    private static boolean isAfter(Note note, SortOrder sortByRating, Double cursorRating, int cursorId) {
+        int order = cursorRating == null ? 0 : Double.compare(note.getRating(), cursorRating);
+        if (order == 0) {
+            order = Integer.compare(note.getId(), cursorId);
+        }
+        return sortByRating == SortOrder.DESC ? order < 0 : order > 0;
+    }
+
+    public Pair<Long, List<Note>> getFeed(int userId, Long beforeSeq, int count) {
+        log.debug("Dao get feed of User with id {}", userId);
+        if (feedTimelines.open(userId)) {
+            try {
+                List<FeedEntry> entries = new ArrayList<>();
+                for (Note note : noteMapper.getFeedBackfill(userId, feedTimelines.getCapacity())) {
+                    entries.add(new FeedEntry(FeedTimelines.seqOf(note.getTimeCreated()), note.getId(),
+                            note.getOwner().getId()));
+                }
+                feedTimelines.backfill(userId, entries);
+            } catch (RuntimeException ex) {
+                feedTimelines.close(userId);
+                throw ex;
+            }
+        }
+        // Entries of notes deleted with their section stay in the rings, so read on until count notes are found.
+        List<Note> notes = new ArrayList<>();
+        Long nextSeq = beforeSeq;
+        while (notes.size() < count) {
+            int wanted = count - notes.size();
+            List<FeedEntry> page = feedTimelines.page(userId, nextSeq, wanted);
+            if (page.isEmpty()) {
+                nextSeq = null;
+                break;
+            }
+            List<Integer> noteIds = new ArrayList<>();
+            for (FeedEntry entry : page) {
+                noteIds.add(entry.getNoteId());
+            }
+            Map<Integer, Note> notesById = new HashMap<>();
+            for (Note note : noteMapper.getNoteList(null, SortOrder.NONE, null, userId, IncludeType.NONE, null, null,
+                    null, false, 0, null, null, null, noteIds, null)) {
+                notesById.put(note.getId(), note);
+            }
+            for (Integer noteId : noteIds) {
+                Note note = notesById.get(noteId);
+                if (note != null) {
+                    notes.add(note);
+                }
+            }
+            if (page.size() < wanted) {
+                nextSeq = null;
+                break;
+            }
+            nextSeq = page.get(page.size() - 1).getSeq();
+        }
+        attachRevisions(notes, false, false);
+        return new ImmutablePair<>(nextSeq, notes);
+    }
+
+    /**
+     * Attaches every revision when all versions or comments are asked for, otherwise only the current one,
+     * so older bodies are not decompressed and decoded just to be dropped.
+     */
+    private void attachRevisions(List<Note> notes, boolean allVersions, boolean comments) {
+        if (notes.isEmpty()) {
+            return;
+        }
+        Map<Integer, Note> notesById = new HashMap<>();
+        for (Note note : notes) {
+            note.setRevisions(new ArrayList<>());
+            notesById.put(note.getId(), note);
+        }
+        List<Integer> noteIds = new ArrayList<>(notesById.keySet());
+        List<Revision> revisions = allVersions || comments
+                ? noteMapper.getRevisionsByNotes(noteIds) : noteMapper.getCurrentRevisionsByNotes(noteIds);
+        decodeRevisions(revisions);
+        Map<Integer, Revision> revisionsById = new HashMap<>();
+        for (Revision revision : revisions) {
+            notesById.get(revision.getNote().getId()).getRevisions().add(revision);
+            revisionsById.put(revision.getId(), revision);
+        }
+
+        if (comments) {
+            for (Revision revision : revisions) {
+                revision.setComments(new ArrayList<>());
+            }
+            if (!revisionsById.isEmpty()) {
+                for (Comment comment : noteMapper.getCommentsByRevisions(new ArrayList<>(revisionsById.keySet()))) {
+                    revisionsById.get(comment.getRevision().getId()).getComments().add(comment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rebuilds delta bodies in place, newest first, from the next revision of the same note when it is in the list,
+     * otherwise from the newer chain up to the next full body.
+     */
+    private void decodeRevisions(List<Revision> revisions) {
+        for (int i = revisions.size() - 1; i >= 0; i--) {
+            Revision revision = revisions.get(i);
+            if (!revision.isDelta()) {
+                continue;
+            }
+            Revision next = i + 1 < revisions.size() ? revisions.get(i + 1) : null;
+            String nextBody = isNextRevision(revision, next) ? next.getBody() : getNextRevisionBody(revision);
+            revision.setBody(RevisionDelta.decode(revision.getBody(), nextBody));
+            revision.setDelta(false);
+        }
+    }
+
+    private static boolean isNextRevision(Revision revision, Revision next) {
+        if (next == null || next.getRevisionIdForNote() != revision.getRevisionIdForNote() + 1) {
+            return false;
+        }
+        if (revision.getNote() == null || next.getNote() == null) {
+            return revision.getNote() == next.getNote();
+        }
+        return revision.getNote().getId() == next.getNote().getId();
+    }
+
+    private String getNextRevisionBody(Revision revision) {
+        List<Revision> chain = noteMapper.getNewerRevisionChain(revision.getId());
+        if (chain.isEmpty()) {
+            throw new IllegalStateException("No full revision after delta revision " + revision.getId());
+        }
+        decodeRevisions(chain);
+        return chain.get(0).getBody();
     }
 }
@@ -1,33 +1,102 @@
 package net.thumbtack.school.notes.daoimpl;
 
 import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.cache.AfterCommit;
+import net.thumbtack.school.notes.cache.RatingBuffer;
+import net.thumbtack.school.notes.cache.RatingDelta;
+import net.thumbtack.school.notes.cache.SessionCache;
+import net.thumbtack.school.notes.cache.SessionTouchBuffer;
 import net.thumbtack.school.notes.dao.UserDao;
-import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
 import net.thumbtack.school.notes.endpoint.request_param.SearchParams;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerErrorCode;
 import net.thumbtack.school.notes.exception.ServerException;
+import net.thumbtack.school.notes.index.FollowGraph;
+import net.thumbtack.school.notes.index.PresenceIndex;
+import net.thumbtack.school.notes.index.RatingLeaderboard;
+import net.thumbtack.school.notes.index.SortedIntSet;
 import net.thumbtack.school.notes.mapper.UserMapper;
 import net.thumbtack.school.notes.model.Session;
 import net.thumbtack.school.notes.model.User;
+import net.thumbtack.school.notes.views.NoteRatingView;
 import net.thumbtack.school.notes.views.SessionView;
+import net.thumbtack.school.notes.views.UserRatingView;
+import net.thumbtack.school.notes.views.UserRelationView;
 import net.thumbtack.school.notes.views.UserView;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.dao.DuplicateKeyException;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Slf4j
 @Service
 public class UserDaoImpl implements UserDao {
 
     private final UserMapper userMapper;
+    private final SessionCache sessionCache;
+    private final SessionTouchBuffer sessionTouchBuffer;
+    private final PresenceIndex presenceIndex;
+    private final RatingLeaderboard ratingLeaderboard;
+    private final FollowGraph followGraph;
+    private final RatingBuffer ratingBuffer;
+
+    @Value("${session_touch_flush_batch_size}")
+    private int flushBatchSize;
 
     @Autowired
-    public UserDaoImpl(UserMapper userMapper) {
+    public UserDaoImpl(UserMapper userMapper, SessionCache sessionCache, SessionTouchBuffer sessionTouchBuffer,
+                       PresenceIndex presenceIndex, RatingLeaderboard ratingLeaderboard, FollowGraph followGraph,
+                       RatingBuffer ratingBuffer) {
         this.userMapper = userMapper;
+        this.sessionCache = sessionCache;
+        this.sessionTouchBuffer = sessionTouchBuffer;
+        this.presenceIndex = presenceIndex;
+        this.ratingLeaderboard = ratingLeaderboard;
+        this.followGraph = followGraph;
+        this.ratingBuffer = ratingBuffer;
+    }
+
+    @PostConstruct
+    public void loadPresence() {
+        List<Integer> userIds = userMapper.getOnlineUserIds();
+        presenceIndex.load(userIds);
+        log.info("Loaded {} online users", userIds.size());
+    }
+
+    @PostConstruct
+    public void loadRatingLeaderboard() {
+        Map<Integer, Double> ratings = new HashMap<>();
+        for (UserView user : userMapper.getUserRatings()) {
+            ratings.put(user.getId(), user.getRating());
+        }
+        ratingLeaderboard.load(ratings);
+        log.info("Loaded ratings of {} users", ratings.size());
+    }
+
+    @PostConstruct
+    public void loadFollowGraph() {
+        followGraph.clear();
+        List<UserRelationView> followings = userMapper.getAllFollowings();
+        for (UserRelationView relation : followings) {
+            followGraph.follow(relation.getUserId(), relation.getTargetId());
+        }
+        List<UserRelationView> ignore = userMapper.getAllIgnore();
+        for (UserRelationView relation : ignore) {
+            followGraph.ignore(relation.getUserId(), relation.getTargetId());
+        }
+        log.info("Loaded {} followings and {} ignores", followings.size(), ignore.size());
     }
 
     @Override
@@ -36,6 +105,10 @@ public class UserDaoImpl implements UserDao {
         try {
             userMapper.insertUser(user);
             userMapper.insertSession(new Session(sessionId, user.getTimeRegistered(), user));
+            AfterCommit.run(() -> {
+                presenceIndex.add(user.getId());
+                ratingLeaderboard.put(user.getId(), 0);
+            });
         } catch (DuplicateKeyException ex) {
             log.info("Cannot insert user, because supplied login already busy");
             throw new ServerException(ServerErrorCode.LOGIN_ALREADY_BUSY);
@@ -44,28 +117,117 @@ public class UserDaoImpl implements UserDao {
 
     public void login(Session session) {
         log.debug("Dao insert session {}", session);
+        dropCachedSession(session.getUser().getId());
         userMapper.deleteSession(session.getUser().getId());
         userMapper.insertSession(session);
+        AfterCommit.run(() -> presenceIndex.add(session.getUser().getId()));
     }
 
     public void logout(int id) {
         log.debug("Dao delete Session by userId {}", id);
+        dropCachedSession(id);
         userMapper.deleteSession(id);
+        AfterCommit.run(() -> presenceIndex.remove(id));
     }
 
     public void updateSession(int userId, LocalDateTime currentTime) {
         log.debug("Dao update Session by userId {}", userId);
-        userMapper.updateSession(userId, currentTime);
+        sessionCache.touch(userId, currentTime);
+        sessionTouchBuffer.touch(userId, currentTime);
+    }
+
+    public int flushSessionTouches() {
+        Map<Integer, LocalDateTime> touches = sessionTouchBuffer.drain();
+        List<Integer> userIds = new ArrayList<>(touches.keySet());
+        for (int i = 0; i < userIds.size(); i += flushBatchSize) {
+            Map<Integer, LocalDateTime> batch = new HashMap<>();
+            for (Integer userId : userIds.subList(i, Math.min(i + flushBatchSize, userIds.size()))) {
+                batch.put(userId, touches.get(userId));
+            }
+            log.debug("Dao flush {} Session touches", batch.size());
+            try {
+                userMapper.updateSessions(batch);
+            } catch (RuntimeException ex) {
+                log.info("Cannot flush Session touches, they will be retried on the next flush");
+                Map<Integer, LocalDateTime> notFlushed = new HashMap<>();
+                for (Integer userId : userIds.subList(i, userIds.size())) {
+                    notFlushed.put(userId, touches.get(userId));
+                }
+                sessionTouchBuffer.restore(notFlushed);
+                throw ex;
+            }
+            sessionTouchBuffer.completeFlush(batch);
+        }
+        return touches.size();
+    }
+
+    /**
+     * Deletes up to limit sessions idle since expiredBefore and returns the ids of their users. Candidates are
+     * locked and checked again first, so users who logged in or were touched meanwhile keep their session.
+     */
+    @Transactional(rollbackFor = Exception.class)
+    public List<Integer> deleteExpiredSessions(LocalDateTime expiredBefore, int limit) {
+        log.debug("Dao delete Sessions idle since {}", expiredBefore);
+        List<Integer> candidates = new ArrayList<>();
+        for (Integer userId : userMapper.getExpiredSessionUsers(expiredBefore, limit)) {
+            LocalDateTime lastTouch = sessionTouchBuffer.lastTouch(userId);
+            if (lastTouch == null || lastTouch.isBefore(expiredBefore)) {
+                candidates.add(userId);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return candidates;
+        }
+        List<Integer> userIds = userMapper.lockExpiredSessions(candidates, expiredBefore);
+        if (!userIds.isEmpty()) {
+            userMapper.deleteExpiredSessions(userIds, expiredBefore);
+            for (Integer userId : userIds) {
+                dropCachedSession(userId);
+                AfterCommit.run(() -> presenceIndex.remove(userId));
+            }
+        }
+        return userIds;
+    }
+
+    public void expireSession(int userId) {
+        log.debug("Dao expire Session by userId {}", userId);
+        sessionCache.invalidateUser(userId);
+        presenceIndex.remove(userId);
     }
 
     public Session getSession(String sessionId) {
         log.debug("Dao get Session by sessionId {}", sessionId);
-        return userMapper.getSession(sessionId);
+        Session session = sessionCache.get(sessionId);
+        if (session != null) {
+            return session;
+        }
+        long stamp = sessionCache.stamp();
+        session = userMapper.getSession(sessionId);
+        if (session != null) {
+            session.setTimeLogin(withLastTouch(session.getUser().getId(), session.getTimeLogin()));
+            sessionCache.put(session, stamp);
+        }
+        return session;
     }
 
     public SessionView getSessionView(String sessionId, SortOrder sortByRating, int from, Integer count) {
+        return getSessionView(sessionId, sortByRating, from, count, null);
+    }
+
+    public SessionView getSessionView(String sessionId, SortOrder sortByRating, int from, Integer count,
+                                      PageCursor cursor) {
         log.debug("Dao get SessionView by sessionId {}", sessionId);
-        return userMapper.getSessionView(sessionId, sortByRating, from, count);
+        SessionView session = userMapper.getSessionView(sessionId, sortByRating, from, count, cursorRating(cursor),
+                cursorId(cursor));
+        if (session != null) {
+            session.setTimeLogin(withLastTouch(session.getUser().getId(), session.getTimeLogin()));
+        }
+        return session;
+    }
+
+    private LocalDateTime withLastTouch(int userId, LocalDateTime timeLogin) {
+        LocalDateTime lastTouch = sessionTouchBuffer.lastTouch(userId);
+        return lastTouch != null && lastTouch.isAfter(timeLogin) ? lastTouch : timeLogin;
     }
 
     public User getUserByLoginAndPassword(String login, String password) {
@@ -86,62 +248,205 @@ public class UserDaoImpl implements UserDao {
     public void updateProfile(int id, String firstName, String lastName, String patronymic, String newPassword) {
         log.debug("Dao update User by id {}", id);
         userMapper.updateProfile(id, firstName, lastName, patronymic, newPassword);
+        invalidateCachedSession(id);
     }
 
     public void deleteUser(int id) {
         log.debug("Dao delete User by id {}", id);
+        dropCachedSession(id);
         userMapper.deleteSession(id);
         userMapper.deleteUser(id);
+        AfterCommit.run(() -> presenceIndex.remove(id));
     }
 
     public void transferToSuperuser(int id) {
         log.debug("Dao transfer to superuser User by id {}", id);
         userMapper.transferToSuperuser(id);
+        invalidateCachedSession(id);
     }
 
     public void addToFollowing(int userId, int followingId) {
         log.debug("Dao add to following User by id {} to User by id {}", followingId, userId);
         userMapper.insertToFollowing(userId, followingId);
+        AfterCommit.run(() -> followGraph.follow(userId, followingId));
     }
 
     public void addToIgnore(int userId, int ignoredId) {
         log.debug("Dao add to ignore User by id {} to User by id {}", ignoredId, userId);
         userMapper.insertToIgnore(userId, ignoredId);
+        AfterCommit.run(() -> followGraph.ignore(userId, ignoredId));
     }
 
     public void deleteFromFollowing(int userId, int followingId) {
         log.debug("Dao delete from following User by id {} to User by id {}", followingId, userId);
         userMapper.deleteFromFollowing(userId, followingId);
+        AfterCommit.run(() -> followGraph.unfollow(userId, followingId));
     }
 
     public void deleteFromIgnore(int userId, int ignoredId) {
         log.debug("Dao delete from ignore User by id {} to User by id {}", ignoredId, userId);
         userMapper.deleteFromIgnore(userId, ignoredId);
+        AfterCommit.run(() -> followGraph.unignore(userId, ignoredId));
     }
 
 
-    public List<UserView> getAllUsers(SortOrder sortByRating, int from, Integer count) {
+    public List<UserView> getAllUsers(SortOrder sortByRating, int from, Integer count, PageCursor cursor) {
         log.debug("Dao get all users");
-        return userMapper.getAllUsers(sortByRating, from, count);
+        Map<Integer, Double> unflushed = getUnflushedRatings();
+        if (sortByRating == SortOrder.NONE) {
+            return withRatings(userMapper.getAllUsers(sortByRating, from, count, cursorRating(cursor), cursorId(cursor)),
+                    unflushed);
+        }
+        return getUsersByIds(ratingLeaderboard.page(sortByRating == SortOrder.DESC, unflushed, cursorRating(cursor),
+                cursorId(cursor), from, count), unflushed);
     }
 
-    public List<UserView> getUsersWithHighOrLowRating(SearchParams type, SortOrder sortByRating, int from, Integer count) {
+    public List<UserView> getUsersWithHighOrLowRating(SearchParams type, SortOrder sortByRating, int from,
+                                                      Integer count, PageCursor cursor) {
         log.debug("Dao get users with high rating");
-        return userMapper.getUsersWithHighOrLowRating(type, sortByRating, from, count);
+        Map<Integer, Double> unflushed = getUnflushedRatings();
+        return getUsersByIds(ratingLeaderboard.extreme(type == SearchParams.HIGH_RATING,
+                sortByRating == SortOrder.DESC, unflushed, cursorRating(cursor), cursorId(cursor), from, count),
+                unflushed);
+    }
+
+    public List<UserView> getRelatedUsers(int userId, SearchParams type, SortOrder sortByRating, int from,
+                                          Integer count, PageCursor cursor) {
+        log.debug("Dao get {} of User by id {}", type, userId);
+        SortedIntSet ids;
+        switch (type) {
+            case FOLLOWINGS:
+                ids = followGraph.getFollowings(userId);
+                break;
+            case FOLLOWERS:
+                ids = followGraph.getFollowers(userId);
+                break;
+            case IGNORE:
+                ids = followGraph.getIgnore(userId);
+                break;
+            case IGNORED_BY:
+                ids = followGraph.getIgnoredBy(userId);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a relation list: " + type);
+        }
+        Map<Integer, Double> unflushed = getUnflushedRatings();
+        if (sortByRating == SortOrder.NONE) {
+            return getUsersByIds(pageById(ids.toList(), cursorId(cursor), from, count), unflushed);
+        }
+        return getUsersByIds(ratingLeaderboard.page(ids, sortByRating == SortOrder.DESC, unflushed,
+                cursorRating(cursor), cursorId(cursor), from, count), unflushed);
+    }
+
+    private static List<Integer> pageById(List<Integer> ids, Integer cursorId, int from, Integer count) {
+        List<Integer> page = new ArrayList<>();
+        int skip = from;
+        for (Integer id : ids) {
+            if (cursorId != null && id <= cursorId) {
+                continue;
+            }
+            if (skip > 0) {
+                skip--;
+                continue;
+            }
+            if (count != null && page.size() >= count) {
+                break;
+            }
+            page.add(id);
+        }
+        return page;
     }
 
-    public List<UserView> getDeletedUsers(SortOrder sortByRating, int from, Integer count) {
+    private List<UserView> getUsersByIds(List<Integer> ids, Map<Integer, Double> unflushed) {
+        List<UserView> users = new ArrayList<>();
+        if (ids.isEmpty()) {
+            return users;
+        }
+        Map<Integer, UserView> byId = new HashMap<>();
+        for (UserView user : userMapper.getUsersByIds(ids)) {
+            byId.put(user.getId(), user);
+        }
+        for (Integer id : ids) {
+            UserView user = byId.get(id);
+            if (user != null) {
+                users.add(user);
+            }
+        }
+        return withRatings(users, unflushed);
+    }
+
+    /**
+     * Ratings of the owners of notes with ratings still in the RatingBuffer, as they will be once those are flushed.
+     * Reads the notes and owners without locking them, and nothing at all while the buffer is empty.
+     */
+    private Map<Integer, Double> getUnflushedRatings() {
+        Map<Integer, RatingDelta> unflushed = ratingBuffer.unflushed();
+        if (unflushed.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<Integer, BigDecimal> ratingSums = new HashMap<>();
+        Map<Integer, Integer> noteCounts = new HashMap<>();
+        for (NoteRatingView note : userMapper.getNoteRatings(unflushed.keySet())) {
+            BigDecimal rating = unflushed.get(note.getId()).applyTo(note.getRatingSum(), note.getNumberOfRatings());
+            ratingSums.putIfAbsent(note.getOwnerId(), note.getOwnerRatingSum());
+            ratingSums.merge(note.getOwnerId(), rating.subtract(note.getRating()), BigDecimal::add);
+            noteCounts.put(note.getOwnerId(), note.getOwnerNoteCount());
+        }
+        Map<Integer, Double> ratings = new HashMap<>();
+        for (Map.Entry<Integer, BigDecimal> entry : ratingSums.entrySet()) {
+            int noteCount = noteCounts.get(entry.getKey());
+            ratings.put(entry.getKey(), noteCount == 0 ? 0
+                    : entry.getValue().divide(BigDecimal.valueOf(noteCount), 8, RoundingMode.HALF_UP).doubleValue());
+        }
+        return ratings;
+    }
+
+    private static List<UserView> withRatings(List<UserView> users, Map<Integer, Double> ratings) {
+        for (UserView user : users) {
+            Double rating = ratings.get(user.getId());
+            if (rating != null) {
+                user.setRating(rating);
+            }
+        }
+        return users;
+    }
+
+    public List<UserView> getDeletedUsers(SortOrder sortByRating, int from, Integer count, PageCursor cursor) {
         log.debug("Dao get deleted users");
-        return userMapper.getDeletedUsers(sortByRating, from, count);
+        return withRatings(userMapper.getDeletedUsers(sortByRating, from, count, cursorRating(cursor), cursorId(cursor)),
+                getUnflushedRatings());
     }
 
-    public List<UserView> getSuperUsers(SortOrder sortByRating, int from, Integer count) {
+    public List<UserView> getSuperUsers(SortOrder sortByRating, int from, Integer count, PageCursor cursor) {
         log.debug("Dao get superusers");
-        return userMapper.getSuperUsers(sortByRating, from, count);
+        return withRatings(userMapper.getSuperUsers(sortByRating, from, count, cursorRating(cursor), cursorId(cursor)),
+                getUnflushedRatings());
+    }
+
+    private static Double cursorRating(PageCursor cursor) {
+        return cursor == null ? null : cursor.getRating();
+    }
+
+    private static Integer cursorId(PageCursor cursor) {
+        return cursor == null ? null : cursor.getId();
+    }
+
+    public int getMaxUserId() {
+        return userMapper.getMaxUserId();
+    }
+
+    public List<UserRatingView> getUserRatingDrift(int fromId, int toId) {
+        log.debug("Dao verify ratings of users with ids from {} to {}", fromId, toId);
+        return userMapper.getUserRatingDrift(fromId, toId);
+    }
+
+    private void invalidateCachedSession(int userId) {
+        sessionCache.invalidateUser(userId);
+        AfterCommit.run(() -> sessionCache.invalidateUser(userId));
     }
 
-    public List<Integer> getIdUsers(int userId, IncludeType include) {
-        log.debug("Dao get id users");
-        return userMapper.getIdUsers(userId, include);
+    private void dropCachedSession(int userId) {
+        invalidateCachedSession(userId);
+        sessionTouchBuffer.discard(userId);
     }
 }
\ No newline at end of file
@@ -1,7 +1,18 @@
 package net.thumbtack.school.notes.debugging;
 
+import net.thumbtack.school.notes.cache.SessionCache;
+import net.thumbtack.school.notes.cache.SessionTouchBuffer;
 import net.thumbtack.school.notes.exception.ServerErrorCode;
 import net.thumbtack.school.notes.exception.ServerException;
+import net.thumbtack.school.notes.cache.EntityVersions;
+import net.thumbtack.school.notes.cache.FeedTimelines;
+import net.thumbtack.school.notes.cache.NoteInfoCache;
+import net.thumbtack.school.notes.cache.RatingBuffer;
+import net.thumbtack.school.notes.cache.SectionCatalog;
+import net.thumbtack.school.notes.index.FollowGraph;
+import net.thumbtack.school.notes.index.PresenceIndex;
+import net.thumbtack.school.notes.index.RatingLeaderboard;
+import net.thumbtack.school.notes.index.TagIndex;
 import net.thumbtack.school.notes.model.User;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DuplicateKeyException;
@@ -11,21 +22,60 @@ import org.springframework.stereotype.Service;
 public class DebugDaoImpl {
 
     private final DebugMapper debugMapper;
+    private final SessionCache sessionCache;
+    private final SessionTouchBuffer sessionTouchBuffer;
+    private final PresenceIndex presenceIndex;
+    private final TagIndex tagIndex;
+    private final NoteInfoCache noteInfoCache;
+    private final SectionCatalog sectionCatalog;
+    private final EntityVersions entityVersions;
+    private final RatingBuffer ratingBuffer;
+    private final RatingLeaderboard ratingLeaderboard;
+    private final FollowGraph followGraph;
+    private final FeedTimelines feedTimelines;
 
     @Autowired
-    public DebugDaoImpl(DebugMapper debugMapper) {
+    public DebugDaoImpl(DebugMapper debugMapper, SessionCache sessionCache, SessionTouchBuffer sessionTouchBuffer,
+                        PresenceIndex presenceIndex, TagIndex tagIndex, NoteInfoCache noteInfoCache,
+                        SectionCatalog sectionCatalog, EntityVersions entityVersions, RatingBuffer ratingBuffer,
+                        RatingLeaderboard ratingLeaderboard, FollowGraph followGraph,
+                        FeedTimelines feedTimelines) {
         this.debugMapper = debugMapper;
+        this.sessionCache = sessionCache;
+        this.sessionTouchBuffer = sessionTouchBuffer;
+        this.presenceIndex = presenceIndex;
+        this.tagIndex = tagIndex;
+        this.noteInfoCache = noteInfoCache;
+        this.sectionCatalog = sectionCatalog;
+        this.entityVersions = entityVersions;
+        this.ratingBuffer = ratingBuffer;
+        this.ratingLeaderboard = ratingLeaderboard;
+        this.followGraph = followGraph;
+        this.feedTimelines = feedTimelines;
     }
 
     public void clearStateServer() {
         debugMapper.clearSection();
         debugMapper.clearUser();
+        sessionCache.clear();
+        sessionTouchBuffer.clear();
+        presenceIndex.clear();
+        tagIndex.clear();
+        noteInfoCache.clear();
+        sectionCatalog.clear();
+        entityVersions.clear();
+        ratingBuffer.clear();
+        ratingLeaderboard.clear();
+        followGraph.clear();
+        feedTimelines.clear();
     }
 
     public void registerAdmin(String sessionId, User user) throws ServerException {
         try {
             debugMapper.insertAdmin(user);
             debugMapper.insertSession(sessionId, user.getTimeRegistered(), user.getId());
+            presenceIndex.add(user.getId());
+            ratingLeaderboard.put(user.getId(), 0);
         } catch (DuplicateKeyException ex) {
             throw new ServerException(ServerErrorCode.LOGIN_ALREADY_BUSY);
         }
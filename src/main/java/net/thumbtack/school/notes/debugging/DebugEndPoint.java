@@ -52,4 +52,44 @@ public class DebugEndPoint {
         log.debug("Executed the get request getServerSettings");
         return response;
     }
+
+    @GetMapping(value = "/sessionReaper", produces = MediaType.APPLICATION_JSON_VALUE)
+    public GetSessionReaperStatsDtoResponse getSessionReaperStats() {
+        log.debug("Accepted the get request getSessionReaperStats");
+        GetSessionReaperStatsDtoResponse response = debugService.getSessionReaperStats();
+        log.debug("Executed the get request getSessionReaperStats");
+        return response;
+    }
+
+    @GetMapping(value = "/userRatingVerifier", produces = MediaType.APPLICATION_JSON_VALUE)
+    public GetUserRatingVerifierStatsDtoResponse getUserRatingVerifierStats() {
+        log.debug("Accepted the get request getUserRatingVerifierStats");
+        GetUserRatingVerifierStatsDtoResponse response = debugService.getUserRatingVerifierStats();
+        log.debug("Executed the get request getUserRatingVerifierStats");
+        return response;
+    }
+
+    @GetMapping(value = "/tagIndex", produces = MediaType.APPLICATION_JSON_VALUE)
+    public GetTagIndexStatsDtoResponse getTagIndexStats() {
+        log.debug("Accepted the get request getTagIndexStats");
+        GetTagIndexStatsDtoResponse response = debugService.getTagIndexStats();
+        log.debug("Executed the get request getTagIndexStats");
+        return response;
+    }
+
+    @GetMapping(value = "/noteInfoCache", produces = MediaType.APPLICATION_JSON_VALUE)
+    public GetNoteInfoCacheStatsDtoResponse getNoteInfoCacheStats() {
+        log.debug("Accepted the get request getNoteInfoCacheStats");
+        GetNoteInfoCacheStatsDtoResponse response = debugService.getNoteInfoCacheStats();
+        log.debug("Executed the get request getNoteInfoCacheStats");
+        return response;
+    }
+
+    @GetMapping(value = "/sqlStats", produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<GetEndpointSqlStatsDtoResponse> getSqlStats() {
+        log.debug("Accepted the get request getSqlStats");
+        List<GetEndpointSqlStatsDtoResponse> response = debugService.getSqlStats();
+        log.debug("Executed the get request getSqlStats");
+        return response;
+    }
 }
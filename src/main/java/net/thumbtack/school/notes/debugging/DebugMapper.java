@@ -21,7 +21,7 @@ public interface DebugMapper {
     @Options(useGeneratedKeys = true, keyProperty = "user.id")
     void insertAdmin(@Param("user") User user) throws DuplicateKeyException;
 
-    @Insert("INSERT INTO session(sessionId, timeLogin, userId) VALUES (#{sessionId}, #{timeLogin}, #{userId})")
+    @Insert("INSERT INTO session(sessionId, timeLogin, userId) VALUES (#{sessionId, typeHandler=SessionId}, #{timeLogin}, #{userId})")
     void insertSession(@Param("sessionId") String sessionId, @Param("timeLogin") LocalDateTime timeLogin,
                        @Param("userId") int userId);
 }
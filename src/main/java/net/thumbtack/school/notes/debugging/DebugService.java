@@ -1,15 +1,22 @@
 package net.thumbtack.school.notes.debugging;
 
 import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.cache.NoteInfoCache;
 import net.thumbtack.school.notes.dto.requests.user.RegisterUserDtoRequest;
 import net.thumbtack.school.notes.exception.ServerException;
+import net.thumbtack.school.notes.index.TagIndex;
+import net.thumbtack.school.notes.jobs.SessionReaper;
+import net.thumbtack.school.notes.jobs.UserRatingVerifier;
 import net.thumbtack.school.notes.model.User;
+import net.thumbtack.school.notes.model.UserType;
+import net.thumbtack.school.notes.service.SessionTokenService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.stereotype.Component;
 
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.UUID;
 
 @Component
@@ -17,6 +24,12 @@ import java.util.UUID;
 public class DebugService {
 
     private final DebugDaoImpl debugDao;
+    private final SessionReaper sessionReaper;
+    private final SessionTokenService sessionTokens;
+    private final TagIndex tagIndex;
+    private final NoteInfoCache noteInfoCache;
+    private final SqlStatsRegistry sqlStats;
+    private final UserRatingVerifier userRatingVerifier;
 
     @Value("${max_name_length}")
     private int maxNameLength;
@@ -28,13 +41,23 @@ public class DebugService {
     private int userIdleTimeout;
 
     @Autowired
-    public DebugService(DebugDaoImpl debugDao) {
+    public DebugService(DebugDaoImpl debugDao, SessionReaper sessionReaper, SessionTokenService sessionTokens,
+                        TagIndex tagIndex, NoteInfoCache noteInfoCache, SqlStatsRegistry sqlStats,
+                        UserRatingVerifier userRatingVerifier) {
         this.debugDao = debugDao;
+        this.sessionReaper = sessionReaper;
+        this.sessionTokens = sessionTokens;
+        this.tagIndex = tagIndex;
+        this.noteInfoCache = noteInfoCache;
+        this.sqlStats = sqlStats;
+        this.userRatingVerifier = userRatingVerifier;
     }
 
 
     public void clearStateServer() {
         debugDao.clearStateServer();
+        sessionTokens.clear();
+        sqlStats.clear();
     }
 
     public String registerAdmin(RegisterUserDtoRequest request) throws ServerException {
@@ -43,10 +66,35 @@ public class DebugService {
         String sessionId = UUID.randomUUID().toString();
         user.setTimeRegistered(LocalDateTime.now());
         debugDao.registerAdmin(sessionId, user);
-        return sessionId;
+        user.setUserType(UserType.ADMIN);
+        return sessionTokens.issue(sessionId, user);
     }
 
     public GetServerSettingsDtoResponse getServerSettings() {
         return new GetServerSettingsDtoResponse(maxNameLength, minPasswordLength, userIdleTimeout);
     }
+
+    public GetSessionReaperStatsDtoResponse getSessionReaperStats() {
+        return new GetSessionReaperStatsDtoResponse(sessionReaper.getPasses(), sessionReaper.getTotalDeleted(),
+                sessionReaper.getLastDeleted(), sessionReaper.getLastDurationMillis());
+    }
+
+    public GetUserRatingVerifierStatsDtoResponse getUserRatingVerifierStats() {
+        return new GetUserRatingVerifierStatsDtoResponse(userRatingVerifier.getPasses(),
+                userRatingVerifier.getLastDrifted(), userRatingVerifier.getLastDurationMillis());
+    }
+
+    public GetTagIndexStatsDtoResponse getTagIndexStats() {
+        return new GetTagIndexStatsDtoResponse(tagIndex.noteCount(), tagIndex.trigramCount(),
+                tagIndex.estimatedMemoryBytes(), tagIndex.getLastBuildMillis());
+    }
+
+    public GetNoteInfoCacheStatsDtoResponse getNoteInfoCacheStats() {
+        return new GetNoteInfoCacheStatsDtoResponse(noteInfoCache.getHits(), noteInfoCache.getMisses(),
+                noteInfoCache.getEvictions(), noteInfoCache.getSize(), noteInfoCache.getWeight());
+    }
+
+    public List<GetEndpointSqlStatsDtoResponse> getSqlStats() {
+        return sqlStats.getStats();
+    }
 }
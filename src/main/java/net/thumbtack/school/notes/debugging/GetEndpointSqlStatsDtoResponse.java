@@ -0,0 +1,20 @@
+package net.thumbtack.school.notes.debugging;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GetEndpointSqlStatsDtoResponse {
+    private String endpoint;
+    private long requests;
+    private long statements;
+    private long rows;
+    private long dbMillis;
+    private long maxStatements;
+    private Map<String, Long> statementHistogram;
+}
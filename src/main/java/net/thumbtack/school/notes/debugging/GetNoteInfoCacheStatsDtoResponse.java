@@ -0,0 +1,16 @@
+package net.thumbtack.school.notes.debugging;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GetNoteInfoCacheStatsDtoResponse {
+    private long hits;
+    private long misses;
+    private long evictions;
+    private int size;
+    private long weight;
+}
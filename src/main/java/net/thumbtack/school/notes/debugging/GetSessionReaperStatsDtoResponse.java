@@ -0,0 +1,15 @@
+package net.thumbtack.school.notes.debugging;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GetSessionReaperStatsDtoResponse {
+    private long passes;
+    private long totalDeleted;
+    private int lastDeleted;
+    private long lastDurationMillis;
+}
@@ -0,0 +1,15 @@
+package net.thumbtack.school.notes.debugging;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GetTagIndexStatsDtoResponse {
+    private int notes;
+    private int trigrams;
+    private long estimatedMemoryBytes;
+    private long lastBuildMillis;
+}
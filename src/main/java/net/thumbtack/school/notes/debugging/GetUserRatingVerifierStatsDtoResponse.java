@@ -0,0 +1,14 @@
+package net.thumbtack.school.notes.debugging;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class GetUserRatingVerifierStatsDtoResponse {
+    private long passes;
+    private int lastDrifted;
+    private long lastDurationMillis;
+}
@@ -0,0 +1,75 @@
+package net.thumbtack.school.notes.debugging;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SQL statements, rows and database time of the HTTP request bound to the current thread.
+ */
+public class RequestSqlStats {
+
+    /**
+     * Request attribute set by handlers whose body is written after the handler returns, on another thread.
+     */
+    public static final String STREAMED_ATTRIBUTE = RequestSqlStats.class.getName() + ".streamed";
+
+    private static final ThreadLocal<RequestSqlStats> CURRENT = new ThreadLocal<>();
+
+    private final Map<String, Integer> statementsById = new HashMap<>();
+    private int statements;
+    private long rows;
+    private long nanos;
+
+    public static RequestSqlStats begin() {
+        RequestSqlStats stats = new RequestSqlStats();
+        CURRENT.set(stats);
+        return stats;
+    }
+
+    /**
+     * Binds the stats of a request to the current thread, e.g. the one writing a streamed body.
+     */
+    public static void resume(RequestSqlStats stats) {
+        CURRENT.set(stats);
+    }
+
+    public static RequestSqlStats current() {
+        return CURRENT.get();
+    }
+
+    public static void end() {
+        CURRENT.remove();
+    }
+
+    public void record(String statementId, long rows, long nanos) {
+        statementsById.merge(statementId, 1, Integer::sum);
+        this.statements++;
+        this.rows += rows;
+        this.nanos += nanos;
+    }
+
+    public int getStatements() {
+        return statements;
+    }
+
+    public long getRows() {
+        return rows;
+    }
+
+    public long getMillis() {
+        return nanos / 1_000_000;
+    }
+
+    /**
+     * Returns the mapped statement executed most often in this request, the usual N+1 suspect.
+     */
+    public Map.Entry<String, Integer> getMostFrequent() {
+        Map.Entry<String, Integer> result = null;
+        for (Map.Entry<String, Integer> entry : statementsById.entrySet()) {
+            if (result == null || entry.getValue() > result.getValue()) {
+                result = entry;
+            }
+        }
+        return result;
+    }
+}
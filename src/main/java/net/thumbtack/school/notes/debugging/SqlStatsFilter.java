@@ -0,0 +1,141 @@
+package net.thumbtack.school.notes.debugging;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.Profiles;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.servlet.HandlerMapping;
+import org.springframework.web.util.ContentCachingResponseWrapper;
+
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Map;
+
+/**
+ * Collects the SQL stats of every request into SqlStatsRegistry and warns when a request exceeds the statement budget.
+ * Under the debug profile the totals are also sent as X-Sql-* headers; the body is buffered so they can precede it.
+ * Streamed responses are neither buffered nor given the headers; their stats are recorded when the stream completes.
+ */
+@Slf4j
+@Component
+public class SqlStatsFilter extends OncePerRequestFilter {
+
+    private final SqlStatsRegistry registry;
+    private final boolean headers;
+
+    @Value("${sql_statement_budget}")
+    private int statementBudget;
+
+    @Autowired
+    public SqlStatsFilter(SqlStatsRegistry registry, Environment environment) {
+        this.registry = registry;
+        this.headers = environment.acceptsProfiles(Profiles.of("debug"));
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain chain)
+            throws ServletException, IOException {
+        RequestSqlStats stats = RequestSqlStats.begin();
+        HeaderFirstResponseWrapper buffered = headers ? new HeaderFirstResponseWrapper(request, response) : null;
+        try {
+            chain.doFilter(request, buffered != null ? buffered : response);
+        } finally {
+            RequestSqlStats.end();
+            if (isStreamed(request) && request.isAsyncStarted()) {
+                request.getAsyncContext().addListener(new StreamCompletionListener(request, stats));
+            } else {
+                record(request, stats);
+                if (buffered != null && !isStreamed(request)) {
+                    buffered.setHeader("X-Sql-Statements", String.valueOf(stats.getStatements()));
+                    buffered.setHeader("X-Sql-Rows", String.valueOf(stats.getRows()));
+                    buffered.setHeader("X-Sql-Time-Millis", String.valueOf(stats.getMillis()));
+                    buffered.copyBodyToResponse();
+                }
+            }
+        }
+    }
+
+    private void record(HttpServletRequest request, RequestSqlStats stats) {
+        String endpoint = endpoint(request);
+        registry.record(endpoint, stats);
+        if (stats.getStatements() > statementBudget) {
+            Map.Entry<String, Integer> worst = stats.getMostFrequent();
+            log.warn("{} executed {} statements, budget is {}; {} ran {} times", endpoint,
+                    stats.getStatements(), statementBudget, worst.getKey(), worst.getValue());
+        }
+        if (headers && isStreamed(request)) {
+            log.debug("{} streamed with {} statements, {} rows, {} ms", endpoint, stats.getStatements(),
+                    stats.getRows(), stats.getMillis());
+        }
+    }
+
+    private static boolean isStreamed(HttpServletRequest request) {
+        return request.getAttribute(RequestSqlStats.STREAMED_ATTRIBUTE) != null;
+    }
+
+    private static String endpoint(HttpServletRequest request) {
+        Object pattern = request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE);
+        return request.getMethod() + " " + (pattern != null ? pattern : "unmapped");
+    }
+
+    private class StreamCompletionListener implements AsyncListener {
+
+        private final HttpServletRequest request;
+        private final RequestSqlStats stats;
+
+        StreamCompletionListener(HttpServletRequest request, RequestSqlStats stats) {
+            this.request = request;
+            this.stats = stats;
+        }
+
+        @Override
+        public void onComplete(AsyncEvent event) {
+            record(request, stats);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {
+        }
+
+        @Override
+        public void onError(AsyncEvent event) {
+        }
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {
+        }
+    }
+
+    /**
+     * Buffers the body until the headers are set, unless the handler marked the response as streamed.
+     */
+    private static class HeaderFirstResponseWrapper extends ContentCachingResponseWrapper {
+
+        private final HttpServletRequest request;
+
+        HeaderFirstResponseWrapper(HttpServletRequest request, HttpServletResponse response) {
+            super(response);
+            this.request = request;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            return isStreamed(request) ? getResponse().getOutputStream() : super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            return isStreamed(request) ? getResponse().getWriter() : super.getWriter();
+        }
+    }
+}
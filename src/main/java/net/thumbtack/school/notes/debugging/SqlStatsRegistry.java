@@ -0,0 +1,72 @@
+package net.thumbtack.school.notes.debugging;
+
+import org.springframework.stereotype.Component;
+
+import java.util.*;
+
+/**
+ * Per-endpoint totals and histograms of the SQL statements fired by each request.
+ * Histogram bucket i counts requests that ran from 2^(i-1) up to 2^i - 1 statements, bucket 0 counts none.
+ */
+@Component
+public class SqlStatsRegistry {
+
+    private static final int BUCKETS = 12;
+
+    private static class EndpointStats {
+        private final long[] histogram = new long[BUCKETS];
+        private long requests;
+        private long statements;
+        private long rows;
+        private long millis;
+        private int maxStatements;
+    }
+
+    private final Map<String, EndpointStats> endpoints = new TreeMap<>();
+
+    public synchronized void record(String endpoint, RequestSqlStats request) {
+        EndpointStats stats = endpoints.computeIfAbsent(endpoint, e -> new EndpointStats());
+        stats.histogram[bucket(request.getStatements())]++;
+        stats.requests++;
+        stats.statements += request.getStatements();
+        stats.rows += request.getRows();
+        stats.millis += request.getMillis();
+        stats.maxStatements = Math.max(stats.maxStatements, request.getStatements());
+    }
+
+    public synchronized List<GetEndpointSqlStatsDtoResponse> getStats() {
+        List<GetEndpointSqlStatsDtoResponse> result = new ArrayList<>();
+        for (Map.Entry<String, EndpointStats> entry : endpoints.entrySet()) {
+            EndpointStats stats = entry.getValue();
+            Map<String, Long> histogram = new LinkedHashMap<>();
+            for (int i = 0; i < BUCKETS; i++) {
+                if (stats.histogram[i] != 0) {
+                    histogram.put(bucketName(i), stats.histogram[i]);
+                }
+            }
+            result.add(new GetEndpointSqlStatsDtoResponse(entry.getKey(), stats.requests, stats.statements,
+                    stats.rows, stats.millis, stats.maxStatements, histogram));
+        }
+        return result;
+    }
+
+    public synchronized void clear() {
+        endpoints.clear();
+    }
+
+    private static int bucket(int statements) {
+        return Math.min(BUCKETS - 1, 32 - Integer.numberOfLeadingZeros(statements));
+    }
+
+    private static String bucketName(int bucket) {
+        if (bucket == 0) {
+            return "0";
+        }
+        int from = 1 << (bucket - 1);
+        if (bucket == BUCKETS - 1) {
+            return from + "+";
+        }
+        int to = (1 << bucket) - 1;
+        return from == to ? String.valueOf(from) : from + "-" + to;
+    }
+}
@@ -0,0 +1,60 @@
+package net.thumbtack.school.notes.endpoint.note;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.dto.responses.note.GetNoteListDtoResponse;
+import net.thumbtack.school.notes.endpoint.request_param.FeedCursor;
+import net.thumbtack.school.notes.exception.ServerErrorCode;
+import net.thumbtack.school.notes.exception.ServerException;
+import net.thumbtack.school.notes.service.NoteService;
+import org.apache.commons.lang3.tuple.Pair;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.*;
+
+import javax.servlet.http.HttpServletResponse;
+import java.util.List;
+
+@Slf4j
+@RestController
+@SpringBootApplication
+@RequestMapping("/api/feed")
+public class FeedEndPoint {
+
+    private final NoteService noteService;
+
+    @Value("${feed_page_size}")
+    private int feedPageSize;
+
+    @Autowired
+    public FeedEndPoint(NoteService noteService) {
+        this.noteService = noteService;
+    }
+
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    public List<GetNoteListDtoResponse> getFeed(@RequestParam(value = "count", required = false) Integer count,
+                                                @RequestParam(value = "cursor", required = false) String cursor,
+                                                @CookieValue(value = "JAVASESSIONID") String sessionId,
+                                                HttpServletResponse responseHeader) throws ServerException {
+        log.debug("Accepted the get request getFeed");
+        FeedCursor feedCursor;
+        try {
+            feedCursor = cursor == null ? null : FeedCursor.decode(cursor);
+        } catch (IllegalArgumentException ex) {
+            log.info("Cannot execute the get request getFeed due to invalid cursor");
+            throw new ServerException(ServerErrorCode.INVALID_PARAM_VALUE);
+        }
+        if (count != null && count <= 0) {
+            log.info("Cannot execute the get request getFeed due to invalid count");
+            throw new ServerException(ServerErrorCode.INVALID_PARAM_VALUE);
+        }
+        Pair<String, List<GetNoteListDtoResponse>> responsePair = noteService.getFeed(sessionId,
+                count == null ? feedPageSize : count, feedCursor);
+        if (responsePair.getLeft() != null) {
+            responseHeader.setHeader("X-Next-Cursor", responsePair.getLeft());
+        }
+        log.debug("Executed the get request getFeed");
+        return responsePair.getRight();
+    }
+}
@@ -1,6 +1,9 @@
 package net.thumbtack.school.notes.endpoint.note;
 
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.debugging.RequestSqlStats;
 import net.thumbtack.school.notes.dto.requests.note.CreateNoteDtoRequest;
 import net.thumbtack.school.notes.dto.requests.note.EditOrTransferNoteDtoRequest;
 import net.thumbtack.school.notes.dto.requests.note.RateNoteDtoRequest;
@@ -8,16 +11,25 @@ import net.thumbtack.school.notes.dto.responses.note.GetCommentInfoDtoResponse;
 import net.thumbtack.school.notes.dto.responses.note.GetNoteInfoDtoResponse;
 import net.thumbtack.school.notes.dto.responses.note.GetNoteListDtoResponse;
 import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
+import net.thumbtack.school.notes.endpoint.request_param.NoteListParams;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerErrorCode;
 import net.thumbtack.school.notes.exception.ServerException;
 import net.thumbtack.school.notes.service.NoteService;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.time.LocalDateTime;
 import java.util.*;
 
@@ -28,10 +40,12 @@ import java.util.*;
 public class NotesEndPoint {
 
     private final NoteService noteService;
+    private final ObjectMapper objectMapper;
 
     @Autowired
-    public NotesEndPoint(NoteService noteService) {
+    public NotesEndPoint(NoteService noteService, ObjectMapper objectMapper) {
         this.noteService = noteService;
+        this.objectMapper = objectMapper;
     }
 
     @PostMapping(produces = MediaType.APPLICATION_JSON_VALUE, consumes = MediaType.APPLICATION_JSON_VALUE)
@@ -45,8 +59,13 @@ public class NotesEndPoint {
 
     @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
     public GetNoteInfoDtoResponse getNoteInfo(@PathVariable("id") int id,
-                                                @CookieValue(value = "JAVASESSIONID") String sessionId) throws ServerException {
+                                                @CookieValue(value = "JAVASESSIONID") String sessionId,
+                                                WebRequest webRequest) throws ServerException {
         log.debug("Accepted the get request getNoteInfo");
+        if (webRequest.checkNotModified(noteService.getNoteInfoETag(sessionId, id))) {
+            log.debug("Executed the get request getNoteInfo, not modified");
+            return null;
+        }
         GetNoteInfoDtoResponse response = noteService.getNoteInfo(sessionId, id);
         log.debug("Executed the get request getNoteInfo");
         return response;
@@ -70,8 +89,13 @@ public class NotesEndPoint {
 
     @GetMapping(value = "/{id}/comments", produces = MediaType.APPLICATION_JSON_VALUE)
     public List<GetCommentInfoDtoResponse> getCommentsNotes(@PathVariable("id") int id,
-                                                            @CookieValue(value = "JAVASESSIONID") String sessionId) throws ServerException {
+                                                            @CookieValue(value = "JAVASESSIONID") String sessionId,
+                                                            WebRequest webRequest) throws ServerException {
         log.debug("Accepted the get request getCommentsNotes");
+        if (webRequest.checkNotModified(noteService.getCommentsNotesETag(sessionId, id))) {
+            log.debug("Executed the get request getCommentsNotes, not modified");
+            return null;
+        }
         List<GetCommentInfoDtoResponse> response = noteService.getCommentsNotes(sessionId, id);
         log.debug("Executed the get request getCommentsNotes");
         return response;
@@ -94,10 +118,50 @@ public class NotesEndPoint {
         log.debug("Executed the post request rateNote");
     }
 
-    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    @GetMapping(params = "count", produces = MediaType.APPLICATION_JSON_VALUE)
     public List<GetNoteListDtoResponse> getNoteList(@RequestParam Map<String, String> allParams,
-                                                    @CookieValue(value = "JAVASESSIONID") String sessionId) throws ServerException {
+                                                    @CookieValue(value = "JAVASESSIONID") String sessionId,
+                                                    HttpServletResponse responseHeader) throws ServerException {
         log.debug("Accepted the get request getNoteList");
+        NoteListParams params = parseNoteListParams(allParams);
+        Pair<String, List<GetNoteListDtoResponse>> responsePair = noteService.getNoteList(sessionId,
+                params.getSectionId(), params.getSortByRating(), params.getTags(), params.isAlltags(),
+                params.getTimeFrom(), params.getTimeTo(), params.getUserId(), params.getInclude(), params.isComments(),
+                params.isAllVersions(), params.isCommentVersion(), params.getFrom(), params.getCount(), params.getCursor());
+        if (responsePair.getLeft() != null) {
+            responseHeader.setHeader("X-Next-Cursor", responsePair.getLeft());
+        }
+        log.debug("Executed the get request getNoteList");
+        return responsePair.getRight();
+    }
+
+    /**
+     * Without count the whole list is streamed in keyset pages, each read in its own transaction, so the
+     * response is not one snapshot: a note whose rating is flushed between pages of a rating-sorted list
+     * can be written twice or skipped.
+     */
+    @GetMapping(params = "!count", produces = MediaType.APPLICATION_JSON_VALUE)
+    public StreamingResponseBody streamNoteList(@RequestParam Map<String, String> allParams,
+                                                @CookieValue(value = "JAVASESSIONID") String sessionId,
+                                                HttpServletRequest request,
+                                                HttpServletResponse responseHeader) throws ServerException {
+        log.debug("Accepted the get request streamNoteList");
+        NoteListParams params = parseNoteListParams(allParams);
+        int readerId = noteService.getNoteListReaderId(sessionId);
+        responseHeader.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        request.setAttribute(RequestSqlStats.STREAMED_ATTRIBUTE, Boolean.TRUE);
+        RequestSqlStats stats = RequestSqlStats.current();
+        return outputStream -> {
+            RequestSqlStats.resume(stats);
+            try {
+                writeNoteList(outputStream, readerId, params);
+            } finally {
+                RequestSqlStats.end();
+            }
+        };
+    }
+
+    private NoteListParams parseNoteListParams(Map<String, String> allParams) throws ServerException {
         Map<String, IncludeType> includeTypeMap = createIncludeTypeMap();
 
         try {
@@ -125,21 +189,48 @@ public class NotesEndPoint {
                     Boolean.parseBoolean(allParams.remove("commentVersion"));
             int from = (allParams.get("from") == null) ? 0 : Integer.parseInt(allParams.remove("from"));
             Integer count = (allParams.get("count") == null) ? null : Integer.parseInt(allParams.remove("count"));
+            PageCursor cursor = (allParams.get("cursor") == null) ? null :
+                    PageCursor.decode(allParams.remove("cursor"), sortByRating);
 
             if (allParams.keySet().size() != 0) {
                 log.info("Cannot execute the get request getNoteList due to invalid search parameters");
                 throw new ServerException(ServerErrorCode.WRONG_SEARCH_PARAM);
             }
-            List<GetNoteListDtoResponse> response = noteService.getNoteList(sessionId, sectionId, sortByRating, tags, alltags,
-                    timeFrom, timeTo, userId, include, comments, allVersions, commentVersion, from, count);
-            log.debug("Executed the get request getNoteList");
-            return response;
+            return new NoteListParams(sectionId, sortByRating, tags, alltags, timeFrom, timeTo, userId, include,
+                    comments, allVersions, commentVersion, from, count, cursor);
         } catch (IllegalArgumentException ex) {
             log.info("Cannot execute the get request getNoteList due to invalid search parameter values");
             throw new ServerException(ServerErrorCode.INVALID_PARAM_VALUE);
         }
     }
 
+    private void writeNoteList(OutputStream outputStream, int readerId, NoteListParams params) throws IOException {
+        PageCursor cursor = params.getCursor();
+        int from = params.getFrom();
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+            generator.writeStartArray();
+            while (true) {
+                Pair<PageCursor, List<GetNoteListDtoResponse>> page = noteService.getNoteListPage(readerId,
+                        params.getSectionId(), params.getSortByRating(), params.getTags(), params.isAlltags(),
+                        params.getTimeFrom(), params.getTimeTo(), params.getUserId(), params.getInclude(),
+                        params.isComments(), params.isAllVersions(), params.isCommentVersion(), from, cursor);
+                for (GetNoteListDtoResponse note : page.getRight()) {
+                    generator.writeObject(note);
+                }
+                generator.flush();
+                if (page.getLeft() == null) {
+                    break;
+                }
+                cursor = page.getLeft();
+                from = 0;
+            }
+            generator.writeEndArray();
+        } catch (RuntimeException ex) {
+            log.error("Cannot finish the get request streamNoteList, the response is aborted", ex);
+            throw ex;
+        }
+        log.debug("Executed the get request streamNoteList");
+    }
 
     private Map<String, IncludeType> createIncludeTypeMap() {
         Map<String, IncludeType> searchParamsMap = new HashMap<>();
@@ -9,6 +9,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.http.MediaType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.WebRequest;
 
 import javax.validation.Valid;
 import java.util.List;
@@ -62,8 +63,13 @@ public class SectionsEndPoint {
     }
 
     @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
-    public List<SectionDataDtoResponse> getSectionList(@CookieValue(value = "JAVASESSIONID") String sessionId) throws ServerException {
+    public List<SectionDataDtoResponse> getSectionList(@CookieValue(value = "JAVASESSIONID") String sessionId,
+                                                       WebRequest webRequest) throws ServerException {
         log.debug("Accepted the get request getSectionList");
+        if (webRequest.checkNotModified(noteService.getSectionListETag(sessionId))) {
+            log.debug("Executed the get request getSectionList, not modified");
+            return null;
+        }
         List<SectionDataDtoResponse> response = noteService.getSectionList(sessionId);
         log.debug("Executed the get request getSectionList");
         return response;
@@ -0,0 +1,26 @@
+package net.thumbtack.school.notes.endpoint.request_param;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+public class NoteListParams {
+    private Integer sectionId;
+    private SortOrder sortByRating;
+    private List<String> tags;
+    private boolean alltags;
+    private LocalDateTime timeFrom;
+    private LocalDateTime timeTo;
+    private Integer userId;
+    private IncludeType include;
+    private boolean comments;
+    private boolean allVersions;
+    private boolean commentVersion;
+    private int from;
+    private Integer count;
+    private PageCursor cursor;
+}
@@ -0,0 +1,34 @@
+package net.thumbtack.school.notes.endpoint.request_param;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+@Data
+@AllArgsConstructor
+public class PageCursor {
+    private Double rating;
+    private int id;
+
+    public static PageCursor after(SortOrder sortByRating, double rating, int id) {
+        return new PageCursor(sortByRating == SortOrder.NONE ? null : rating, id);
+    }
+
+    public String encode() {
+        String key = rating == null ? Integer.toString(id) : rating + ":" + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(key.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static PageCursor decode(String cursor, SortOrder sortByRating) {
+        String[] key = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8).split(":");
+        if (sortByRating == SortOrder.NONE && key.length == 1) {
+            return new PageCursor(null, Integer.parseInt(key[0]));
+        }
+        if (sortByRating != SortOrder.NONE && key.length == 2) {
+            return new PageCursor(Double.parseDouble(key[0]), Integer.parseInt(key[1]));
+        }
+        throw new IllegalArgumentException("Cursor doesn't match sort order");
+    }
+}
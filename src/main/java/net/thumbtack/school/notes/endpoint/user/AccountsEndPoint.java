@@ -8,6 +8,7 @@ import net.thumbtack.school.notes.dto.responses.user.EditUserProfileDtoResponse;
 import net.thumbtack.school.notes.dto.responses.user.GetInfoOfUserDtoResponse;
 import net.thumbtack.school.notes.dto.responses.user.GetUsersDtoResponse;
 import net.thumbtack.school.notes.dto.responses.user.RegisterUserDtoResponse;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
 import net.thumbtack.school.notes.endpoint.request_param.SearchParams;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerErrorCode;
@@ -86,7 +87,8 @@ public class AccountsEndPoint {
 
     @GetMapping(value = "/accounts", produces = MediaType.APPLICATION_JSON_VALUE)
     public List<GetUsersDtoResponse> getUserList(@RequestParam Map<String, String> allParams,
-                                                    @CookieValue(value = "JAVASESSIONID") String sessionId) throws ServerException {
+                                                    @CookieValue(value = "JAVASESSIONID") String sessionId,
+                                                    HttpServletResponse responseHeader) throws ServerException {
         log.debug("Accepted the get request getListOfUsers");
         Map<String, SearchParams> searchParamsMap = createSearchParamsMap();
 
@@ -97,6 +99,8 @@ public class AccountsEndPoint {
                     searchParamsMap.get(allParams.remove("type"));
             int from = (allParams.get("from") == null) ? 0 : Integer.parseInt(allParams.remove("from"));
             Integer count = (allParams.get("count") == null) ? null : Integer.parseInt(allParams.remove("count"));
+            PageCursor cursor = (allParams.get("cursor") == null) ? null :
+                    PageCursor.decode(allParams.remove("cursor"), sortByRating);
 
             if (type == null) {
                 throw new IllegalArgumentException();
@@ -107,9 +111,13 @@ public class AccountsEndPoint {
                 log.info("Cannot execute the get request getListOfUsers due to invalid search parameters");
                 throw new ServerException(ServerErrorCode.WRONG_SEARCH_PARAM);
             }
-            List<GetUsersDtoResponse> response = userService.getUserList(sessionId, sortByRating, type, from, count);
+            Pair<String, List<GetUsersDtoResponse>> responsePair = userService.getUserList(sessionId, sortByRating, type,
+                    from, count, cursor);
+            if (responsePair.getLeft() != null) {
+                responseHeader.setHeader("X-Next-Cursor", responsePair.getLeft());
+            }
             log.debug("Executed the get request getListOfUsers");
-            return response;
+            return responsePair.getRight();
         } catch (IllegalArgumentException ex) {
             log.info("Cannot execute the get request getListOfUsers due to invalid search parameter values");
             throw new ServerException(ServerErrorCode.INVALID_PARAM_VALUE);
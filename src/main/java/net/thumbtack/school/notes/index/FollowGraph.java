@@ -0,0 +1,123 @@
+package net.thumbtack.school.notes.index;
+
+import org.springframework.stereotype.Component;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Following and ignore relations between users, with forward and reverse adjacency kept as sorted int sets,
+ * so relation lookups don't touch the following and ignore tables.
+ */
+@Component
+public class FollowGraph {
+
+    private final Map<Integer, SortedIntSet> followings = new HashMap<>();
+    private final Map<Integer, SortedIntSet> followers = new HashMap<>();
+    private final Map<Integer, SortedIntSet> ignore = new HashMap<>();
+    private final Map<Integer, SortedIntSet> ignoredBy = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public SortedIntSet getFollowings(int userId) {
+        return get(followings, userId);
+    }
+
+    public SortedIntSet getFollowers(int userId) {
+        return get(followers, userId);
+    }
+
+    public int countFollowers(int userId) {
+        lock.readLock().lock();
+        try {
+            SortedIntSet ids = followers.get(userId);
+            return ids == null ? 0 : ids.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public SortedIntSet getIgnore(int userId) {
+        return get(ignore, userId);
+    }
+
+    public SortedIntSet getIgnoredBy(int userId) {
+        return get(ignoredBy, userId);
+    }
+
+    public void follow(int userId, int followingId) {
+        lock.writeLock().lock();
+        try {
+            link(followings, followers, userId, followingId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void unfollow(int userId, int followingId) {
+        lock.writeLock().lock();
+        try {
+            unlink(followings, followers, userId, followingId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void ignore(int userId, int ignoredId) {
+        lock.writeLock().lock();
+        try {
+            link(ignore, ignoredBy, userId, ignoredId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void unignore(int userId, int ignoredId) {
+        lock.writeLock().lock();
+        try {
+            unlink(ignore, ignoredBy, userId, ignoredId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            followings.clear();
+            followers.clear();
+            ignore.clear();
+            ignoredBy.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private SortedIntSet get(Map<Integer, SortedIntSet> adjacency, int userId) {
+        lock.readLock().lock();
+        try {
+            SortedIntSet ids = adjacency.get(userId);
+            return ids == null ? new SortedIntSet() : ids.copy();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static void link(Map<Integer, SortedIntSet> forward, Map<Integer, SortedIntSet> reverse, int from, int to) {
+        forward.computeIfAbsent(from, key -> new SortedIntSet()).add(to);
+        reverse.computeIfAbsent(to, key -> new SortedIntSet()).add(from);
+    }
+
+    private static void unlink(Map<Integer, SortedIntSet> forward, Map<Integer, SortedIntSet> reverse, int from, int to) {
+        remove(forward, from, to);
+        remove(reverse, to, from);
+    }
+
+    private static void remove(Map<Integer, SortedIntSet> adjacency, int userId, int id) {
+        SortedIntSet ids = adjacency.get(userId);
+        if (ids != null && ids.remove(id) && ids.isEmpty()) {
+            adjacency.remove(userId);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package net.thumbtack.school.notes.index;
+
+import org.springframework.stereotype.Component;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Ids of users who currently have a live session, as a bitmap indexed by user id.
+ */
+@Component
+public class PresenceIndex {
+
+    private final BitSet online = new BitSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    public boolean isOnline(int userId) {
+        lock.readLock().lock();
+        try {
+            return online.get(userId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void add(int userId) {
+        lock.writeLock().lock();
+        try {
+            online.set(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int userId) {
+        lock.writeLock().lock();
+        try {
+            online.clear(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void load(Collection<Integer> userIds) {
+        lock.writeLock().lock();
+        try {
+            online.clear();
+            for (Integer userId : userIds) {
+                online.set(userId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        load(Collections.emptyList());
+    }
+}
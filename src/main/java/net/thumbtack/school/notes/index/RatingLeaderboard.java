@@ -0,0 +1,226 @@
+package net.thumbtack.school.notes.index;
+
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Ids of all users ordered by rating, then by id, so rating-sorted pages and the users with the highest
+ * or lowest non-zero rating are read in O(log n + k) instead of sorting or aggregating the user table.
+ */
+@Component
+public class RatingLeaderboard {
+
+    private final NavigableMap<Double, NavigableSet<Integer>> byRating = new TreeMap<>();
+    private final Map<Integer, Double> ratings = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * Ids ordered by rating ascending or descending, with equal ratings ordered by id the same way,
+     * after the cursor (cursorRating, cursorId) if one is given. Users in adjusted are placed by the
+     * rating given there instead of the one in the leaderboard.
+     */
+    public List<Integer> page(boolean descending, Map<Integer, Double> adjusted, Double cursorRating, Integer cursorId,
+                              int from, Integer count) {
+        lock.readLock().lock();
+        try {
+            NavigableMap<Double, NavigableSet<Integer>> moved = moved(adjusted);
+            return collect(descending ? byRating.descendingMap() : byRating,
+                    descending ? moved.descendingMap() : moved, descending, cursorRating, cursorId, from, count);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Same as page(), restricted to the given users.
+     */
+    public List<Integer> page(SortedIntSet userIds, boolean descending, Map<Integer, Double> adjusted,
+                              Double cursorRating, Integer cursorId, int from, Integer count) {
+        NavigableMap<Double, NavigableSet<Integer>> members = new TreeMap<>();
+        lock.readLock().lock();
+        try {
+            for (Integer userId : userIds.toList()) {
+                Double rating = adjusted.containsKey(userId) ? adjusted.get(userId) : ratings.getOrDefault(userId, 0.0);
+                members.computeIfAbsent(rating, key -> new TreeSet<>()).add(userId);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return collect(descending ? members.descendingMap() : members, Collections.emptyNavigableMap(), descending,
+                cursorRating, cursorId, from, count);
+    }
+
+    /**
+     * Ids of the users sharing the highest or the lowest non-zero rating, ordered by id ascending or descending,
+     * with the users in adjusted placed as in page().
+     */
+    public List<Integer> extreme(boolean highest, boolean descending, Map<Integer, Double> adjusted,
+                                 Double cursorRating, Integer cursorId, int from, Integer count) {
+        lock.readLock().lock();
+        try {
+            NavigableMap<Double, NavigableSet<Integer>> moved = moved(adjusted);
+            Iterator<Map.Entry<Double, NavigableSet<Integer>>> entries = highest
+                    ? merge(byRating.descendingMap(), moved.descendingMap())
+                    : merge(byRating, moved);
+            while (entries.hasNext()) {
+                Map.Entry<Double, NavigableSet<Integer>> entry = entries.next();
+                if (entry.getKey() != 0 && !entry.getValue().isEmpty()) {
+                    NavigableMap<Double, NavigableSet<Integer>> users = new TreeMap<>();
+                    users.put(entry.getKey(), entry.getValue());
+                    return collect(users, Collections.emptyNavigableMap(), descending,
+                            cursorRating, cursorId, from, count);
+                }
+            }
+            return Collections.emptyList();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public void put(int userId, double rating) {
+        lock.writeLock().lock();
+        try {
+            Double previous = ratings.put(userId, rating);
+            if (previous != null) {
+                if (previous == rating) {
+                    return;
+                }
+                NavigableSet<Integer> ids = byRating.get(previous);
+                ids.remove(userId);
+                if (ids.isEmpty()) {
+                    byRating.remove(previous);
+                }
+            }
+            byRating.computeIfAbsent(rating, key -> new TreeSet<>()).add(userId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void load(Map<Integer, Double> userRatings) {
+        lock.writeLock().lock();
+        try {
+            byRating.clear();
+            ratings.clear();
+            for (Map.Entry<Integer, Double> entry : userRatings.entrySet()) {
+                ratings.put(entry.getKey(), entry.getValue());
+                byRating.computeIfAbsent(entry.getValue(), key -> new TreeSet<>()).add(entry.getKey());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        load(Collections.emptyMap());
+    }
+
+    /**
+     * The entries of byRating that change when the adjusted users are moved, with their ids after the move.
+     */
+    private NavigableMap<Double, NavigableSet<Integer>> moved(Map<Integer, Double> adjusted) {
+        NavigableMap<Double, NavigableSet<Integer>> moved = new TreeMap<>();
+        for (Map.Entry<Integer, Double> entry : adjusted.entrySet()) {
+            Double previous = ratings.get(entry.getKey());
+            if (previous == null || previous.equals(entry.getValue())) {
+                continue;
+            }
+            moved.computeIfAbsent(previous, this::copyOf).remove(entry.getKey());
+            moved.computeIfAbsent(entry.getValue(), this::copyOf).add(entry.getKey());
+        }
+        return moved;
+    }
+
+    private NavigableSet<Integer> copyOf(Double rating) {
+        NavigableSet<Integer> ids = byRating.get(rating);
+        return ids == null ? new TreeSet<>() : new TreeSet<>(ids);
+    }
+
+    /**
+     * Iterates the entries of ordered, taking those of moved in their place where both have the rating.
+     * Both maps must be ordered the same way.
+     */
+    private static Iterator<Map.Entry<Double, NavigableSet<Integer>>> merge(
+            NavigableMap<Double, NavigableSet<Integer>> ordered, NavigableMap<Double, NavigableSet<Integer>> moved) {
+        if (moved.isEmpty()) {
+            return ordered.entrySet().iterator();
+        }
+        Comparator<? super Double> order = ordered.comparator() != null ? ordered.comparator() : Comparator.naturalOrder();
+        Iterator<Map.Entry<Double, NavigableSet<Integer>>> base = ordered.entrySet().iterator();
+        Iterator<Map.Entry<Double, NavigableSet<Integer>>> overlay = moved.entrySet().iterator();
+        return new Iterator<Map.Entry<Double, NavigableSet<Integer>>>() {
+            private Map.Entry<Double, NavigableSet<Integer>> nextBase = advance(base);
+            private Map.Entry<Double, NavigableSet<Integer>> nextOverlay = advance(overlay);
+
+            @Override
+            public boolean hasNext() {
+                return nextBase != null || nextOverlay != null;
+            }
+
+            @Override
+            public Map.Entry<Double, NavigableSet<Integer>> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                int cmp = nextBase == null ? 1 : nextOverlay == null ? -1
+                        : order.compare(nextBase.getKey(), nextOverlay.getKey());
+                Map.Entry<Double, NavigableSet<Integer>> entry = cmp < 0 ? nextBase : nextOverlay;
+                if (cmp <= 0) {
+                    nextBase = advance(base);
+                }
+                if (cmp >= 0) {
+                    nextOverlay = advance(overlay);
+                }
+                return entry;
+            }
+        };
+    }
+
+    private static <T> T advance(Iterator<T> iterator) {
+        return iterator.hasNext() ? iterator.next() : null;
+    }
+
+    private static List<Integer> collect(NavigableMap<Double, NavigableSet<Integer>> ordered,
+                                         NavigableMap<Double, NavigableSet<Integer>> moved, boolean descending,
+                                         Double cursorRating, Integer cursorId, int from, Integer count) {
+        if (cursorId != null && cursorRating != null) {
+            ordered = ordered.tailMap(cursorRating, true);
+            moved = moved.tailMap(cursorRating, true);
+        }
+        List<Integer> page = new ArrayList<>();
+        int skip = from;
+        Iterator<Map.Entry<Double, NavigableSet<Integer>>> entries = merge(ordered, moved);
+        while (entries.hasNext()) {
+            Map.Entry<Double, NavigableSet<Integer>> entry = entries.next();
+            NavigableSet<Integer> ids = descending ? entry.getValue().descendingSet() : entry.getValue();
+            if (cursorId != null && (cursorRating == null || entry.getKey().equals(cursorRating))) {
+                ids = ids.tailSet(cursorId, false);
+            }
+            for (Integer id : ids) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (count != null && page.size() >= count) {
+                    return page;
+                }
+                page.add(id);
+            }
+        }
+        return page;
+    }
+}
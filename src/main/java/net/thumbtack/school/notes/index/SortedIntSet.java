@@ -0,0 +1,110 @@
+package net.thumbtack.school.notes.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Set of ints kept as a sorted primitive array. Not thread safe.
+ */
+public class SortedIntSet {
+
+    private int[] values;
+    private int size;
+
+    public SortedIntSet() {
+        this(new int[4], 0);
+    }
+
+    private SortedIntSet(int[] values, int size) {
+        this.values = values;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long memoryBytes() {
+        return 32 + 4L * values.length;
+    }
+
+    public boolean contains(int value) {
+        return Arrays.binarySearch(values, 0, size, value) >= 0;
+    }
+
+    public boolean add(int value) {
+        int pos = Arrays.binarySearch(values, 0, size, value);
+        if (pos >= 0) {
+            return false;
+        }
+        pos = -pos - 1;
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, size * 2));
+        }
+        System.arraycopy(values, pos, values, pos + 1, size - pos);
+        values[pos] = value;
+        size++;
+        return true;
+    }
+
+    public boolean remove(int value) {
+        int pos = Arrays.binarySearch(values, 0, size, value);
+        if (pos < 0) {
+            return false;
+        }
+        System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+        size--;
+        return true;
+    }
+
+    public SortedIntSet copy() {
+        return new SortedIntSet(Arrays.copyOf(values, size), size);
+    }
+
+    public SortedIntSet and(SortedIntSet other) {
+        int[] result = new int[Math.min(size, other.size)];
+        int i = 0, j = 0, k = 0;
+        while (i < size && j < other.size) {
+            if (values[i] < other.values[j]) {
+                i++;
+            } else if (values[i] > other.values[j]) {
+                j++;
+            } else {
+                result[k++] = values[i];
+                i++;
+                j++;
+            }
+        }
+        return new SortedIntSet(result, k);
+    }
+
+    public SortedIntSet or(SortedIntSet other) {
+        int[] result = new int[size + other.size];
+        int i = 0, j = 0, k = 0;
+        while (i < size || j < other.size) {
+            if (j == other.size || (i < size && values[i] < other.values[j])) {
+                result[k++] = values[i++];
+            } else if (i == size || values[i] > other.values[j]) {
+                result[k++] = other.values[j++];
+            } else {
+                result[k++] = values[i];
+                i++;
+                j++;
+            }
+        }
+        return new SortedIntSet(result, k);
+    }
+
+    public List<Integer> toList() {
+        List<Integer> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(values[i]);
+        }
+        return list;
+    }
+}
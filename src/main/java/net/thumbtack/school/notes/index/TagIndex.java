@@ -0,0 +1,230 @@
+package net.thumbtack.school.notes.index;
+
+import org.springframework.stereotype.Component;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Trigram index over each note's current revision body. Text is folded the way the column collation
+ * compares it (case and accents ignored). A body matches LIKE '%tag%' only if it contains every trigram
+ * of the tag, so the index gives a superset of the matching notes that SQL verifies.
+ * The fold only matches utf8_general_ci for ASCII: tags with other characters are left to SQL, and notes
+ * whose body keeps non-ASCII Latin characters after folding (e.g. 'ß', which the collation equals to 's')
+ * are candidates for every tag.
+ */
+@Component
+public class TagIndex {
+
+    private static final int MIN_TAG_LENGTH = 3;
+    private static final long ENTRY_OVERHEAD_BYTES = 64;
+
+    private final Map<Long, SortedIntSet> postings = new HashMap<>();
+    private final Map<Integer, long[]> trigramsByNote = new HashMap<>();
+    private SortedIntSet unfolded = new SortedIntSet();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private volatile long lastBuildMillis;
+
+    public void index(int noteId, String body) {
+        String folded = fold(body);
+        long[] trigrams = trigrams(folded, false);
+        boolean mayEqualAscii = mayEqualAscii(folded);
+        lock.writeLock().lock();
+        try {
+            removeTrigrams(noteId);
+            for (long trigram : trigrams) {
+                postings.computeIfAbsent(trigram, t -> new SortedIntSet()).add(noteId);
+            }
+            trigramsByNote.put(noteId, trigrams);
+            if (mayEqualAscii) {
+                unfolded.add(noteId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(int noteId) {
+        lock.writeLock().lock();
+        try {
+            removeTrigrams(noteId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            postings.clear();
+            trigramsByNote.clear();
+            unfolded = new SortedIntSet();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void recordBuild(long millis) {
+        lastBuildMillis = millis;
+    }
+
+    public long getLastBuildMillis() {
+        return lastBuildMillis;
+    }
+
+    public int noteCount() {
+        lock.readLock().lock();
+        try {
+            return trigramsByNote.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int trigramCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public long estimatedMemoryBytes() {
+        lock.readLock().lock();
+        try {
+            long bytes = 0;
+            for (SortedIntSet notes : postings.values()) {
+                bytes += ENTRY_OVERHEAD_BYTES + notes.memoryBytes();
+            }
+            for (long[] trigrams : trigramsByNote.values()) {
+                bytes += ENTRY_OVERHEAD_BYTES + 8L * trigrams.length;
+            }
+            return bytes + unfolded.memoryBytes();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns ids of notes that may match the tags, or null when the index cannot narrow the search.
+     */
+    public SortedIntSet candidates(List<String> tags, boolean alltags) {
+        lock.readLock().lock();
+        try {
+            SortedIntSet result = null;
+            for (String tag : tags) {
+                SortedIntSet matches = candidates(tag);
+                if (matches == null) {
+                    if (alltags) {
+                        continue;
+                    }
+                    return null;
+                }
+                if (result == null) {
+                    result = matches;
+                } else {
+                    result = alltags ? result.and(matches) : result.or(matches);
+                }
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private SortedIntSet candidates(String tag) {
+        if (!isAscii(tag)) {
+            return null;
+        }
+        String folded = fold(tag);
+        if (folded.length() < MIN_TAG_LENGTH) {
+            return null;
+        }
+        long[] trigrams = trigrams(folded, true);
+        if (trigrams.length == 0) {
+            return null;
+        }
+        List<SortedIntSet> lists = new ArrayList<>();
+        for (long trigram : trigrams) {
+            SortedIntSet notes = postings.get(trigram);
+            if (notes == null) {
+                return unfolded.copy();
+            }
+            lists.add(notes);
+        }
+        lists.sort(Comparator.comparingInt(SortedIntSet::size));
+        SortedIntSet result = lists.get(0).copy();
+        for (int i = 1; i < lists.size() && !result.isEmpty(); i++) {
+            result = result.and(lists.get(i));
+        }
+        return result.or(unfolded);
+    }
+
+    private void removeTrigrams(int noteId) {
+        unfolded.remove(noteId);
+        long[] trigrams = trigramsByNote.remove(noteId);
+        if (trigrams == null) {
+            return;
+        }
+        for (long trigram : trigrams) {
+            SortedIntSet notes = postings.get(trigram);
+            notes.remove(noteId);
+            if (notes.isEmpty()) {
+                postings.remove(trigram);
+            }
+        }
+    }
+
+    private static long[] trigrams(String text, boolean skipWildcards) {
+        Set<Long> trigrams = new HashSet<>();
+        for (int i = 0; i + MIN_TAG_LENGTH <= text.length(); i++) {
+            char a = text.charAt(i), b = text.charAt(i + 1), c = text.charAt(i + 2);
+            if (skipWildcards && (isWildcard(a) || isWildcard(b) || isWildcard(c))) {
+                continue;
+            }
+            trigrams.add(((long) a << 32) | ((long) b << 16) | c);
+        }
+        long[] result = new long[trigrams.size()];
+        int i = 0;
+        for (Long trigram : trigrams) {
+            result[i++] = trigram;
+        }
+        return result;
+    }
+
+    private static boolean isWildcard(char c) {
+        return c == '%' || c == '_' || c == '\\';
+    }
+
+    private static boolean isAscii(String text) {
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) > 0x7F) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Whether folded text has characters the collation may equal to ASCII ones although the fold does not.
+     * These are Latin letters and Latin-1 symbols; other scripts, such as Cyrillic, keep the note indexed.
+     */
+    private static boolean mayEqualAscii(String folded) {
+        for (int i = 0; i < folded.length(); ) {
+            int c = folded.codePointAt(i);
+            if (c > 0x7F && (c <= 0xFF || Character.UnicodeScript.of(c) == Character.UnicodeScript.LATIN)) {
+                return true;
+            }
+            i += Character.charCount(c);
+        }
+        return false;
+    }
+
+    private static String fold(String text) {
+        return Normalizer.normalize(text, Normalizer.Form.NFD).replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,84 @@
+package net.thumbtack.school.notes.jobs;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * A few threads for bulk reads split into id-range chunks, such as loading the tag index or verifying
+ * user ratings. There are fewer of them than pooled connections, so such a read never takes every
+ * connection from the requests, and no JDBC call runs on the common fork-join pool.
+ */
+@Component
+public class ChunkExecutor {
+
+    private final int threads;
+    private final ExecutorService executor;
+
+    @Autowired
+    public ChunkExecutor(@Value("${chunk_executor_threads}") int threads) {
+        this.threads = threads;
+        AtomicInteger created = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "chunk-executor-" + created.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Runs task for every chunk from 0 to chunks - 1 in parallel and waits for all of them.
+     * After a failure the remaining chunks are skipped and the failure is rethrown.
+     */
+    public void forEachChunk(int chunks, IntConsumer task) {
+        AtomicInteger next = new AtomicInteger();
+        List<Future<?>> workers = new ArrayList<>();
+        for (int i = 0; i < Math.min(threads, chunks); i++) {
+            workers.add(executor.submit(() -> {
+                try {
+                    for (int chunk = next.getAndIncrement(); chunk < chunks; chunk = next.getAndIncrement()) {
+                        task.accept(chunk);
+                    }
+                } catch (RuntimeException | Error ex) {
+                    next.set(chunks);
+                    throw ex;
+                }
+            }));
+        }
+        Throwable failure = null;
+        for (Future<?> worker : workers) {
+            try {
+                worker.get();
+            } catch (ExecutionException ex) {
+                if (failure == null) {
+                    failure = ex.getCause();
+                }
+            } catch (InterruptedException ex) {
+                next.set(chunks);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for chunks", ex);
+            }
+        }
+        if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,35 @@
+package net.thumbtack.school.notes.jobs;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.dao.NoteDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+@Slf4j
+@Component
+public class RatingFlusher {
+
+    private final NoteDao noteDao;
+
+    @Autowired
+    public RatingFlusher(NoteDao noteDao) {
+        this.noteDao = noteDao;
+    }
+
+    @Scheduled(fixedDelayString = "${rating_flush_interval}")
+    public void flush() {
+        int flushed = noteDao.flushRatings();
+        if (flushed != 0) {
+            log.debug("Flushed ratings of {} notes", flushed);
+        }
+    }
+
+    @PreDestroy
+    public void drain() {
+        log.info("Drain rating buffer before shutdown");
+        flush();
+    }
+}
@@ -0,0 +1,52 @@
+package net.thumbtack.school.notes.jobs;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.dao.NoteDao;
+import net.thumbtack.school.notes.model.Revision;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.List;
+
+/**
+ * Compresses superseded revision bodies stored before compression existed, walking the table in id order by batches.
+ * Current revisions are skipped: the tag filter matches them with LIKE.
+ */
+@Slf4j
+@Component
+public class RevisionRecompressor {
+
+    private final NoteDao noteDao;
+
+    @Value("${revision_recompress_batch_size}")
+    private int batchSize;
+
+    @Autowired
+    public RevisionRecompressor(NoteDao noteDao) {
+        this.noteDao = noteDao;
+    }
+
+    @Scheduled(initialDelayString = "${revision_recompress_interval}", fixedDelayString = "${revision_recompress_interval}")
+    public void recompress() {
+        long start = System.currentTimeMillis();
+        int afterId = 0;
+        int compressed = 0;
+        while (true) {
+            List<Revision> batch = noteDao.getUncompressedRevisions(afterId, batchSize);
+            for (Revision revision : batch) {
+                noteDao.compressRevision(revision);
+                afterId = revision.getId();
+            }
+            compressed += batch.size();
+            if (batch.size() < batchSize) {
+                break;
+            }
+        }
+        if (compressed != 0) {
+            log.info("Revision recompressor compressed {} revisions in {} ms", compressed,
+                    System.currentTimeMillis() - start);
+        }
+    }
+}
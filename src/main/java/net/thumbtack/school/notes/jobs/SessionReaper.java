@@ -0,0 +1,79 @@
+package net.thumbtack.school.notes.jobs;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.dao.UserDao;
+import net.thumbtack.school.notes.service.SessionTokenService;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.time.LocalDateTime;
+import java.util.concurrent.atomic.AtomicLong;
+
+@Slf4j
+@Component
+public class SessionReaper {
+
+    private final UserDao userDao;
+    private final SessionTokenService sessionTokens;
+
+    @Value("${user_idle_timeout}")
+    private int userIdleTimeout;
+
+    @Value("${session_reaper_chunk_size}")
+    private int chunkSize;
+
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong totalDeleted = new AtomicLong();
+    private volatile int lastDeleted;
+    private volatile long lastDurationMillis;
+
+    @Autowired
+    public SessionReaper(UserDao userDao, SessionTokenService sessionTokens) {
+        this.userDao = userDao;
+        this.sessionTokens = sessionTokens;
+    }
+
+    @Scheduled(fixedDelayString = "${session_reaper_interval}")
+    public void reap() {
+        long start = System.currentTimeMillis();
+        userDao.flushSessionTouches();
+        LocalDateTime expiredBefore = LocalDateTime.now().minusSeconds(userIdleTimeout);
+
+        int deleted = 0;
+        while (true) {
+            int chunk = userDao.deleteExpiredSessions(expiredBefore, chunkSize).size();
+            deleted += chunk;
+            if (chunk < chunkSize) {
+                break;
+            }
+        }
+
+        sessionTokens.purgeExpired();
+
+        lastDeleted = deleted;
+        lastDurationMillis = System.currentTimeMillis() - start;
+        totalDeleted.addAndGet(deleted);
+        passes.incrementAndGet();
+        if (deleted != 0) {
+            log.info("Session reaper deleted {} expired sessions in {} ms", deleted, lastDurationMillis);
+        }
+    }
+
+    public long getPasses() {
+        return passes.get();
+    }
+
+    public long getTotalDeleted() {
+        return totalDeleted.get();
+    }
+
+    public int getLastDeleted() {
+        return lastDeleted;
+    }
+
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+}
@@ -0,0 +1,35 @@
+package net.thumbtack.school.notes.jobs;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.dao.UserDao;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+
+@Slf4j
+@Component
+public class SessionTouchFlusher {
+
+    private final UserDao userDao;
+
+    @Autowired
+    public SessionTouchFlusher(UserDao userDao) {
+        this.userDao = userDao;
+    }
+
+    @Scheduled(fixedDelayString = "${session_touch_flush_interval}")
+    public void flush() {
+        int flushed = userDao.flushSessionTouches();
+        if (flushed != 0) {
+            log.debug("Flushed {} session touches", flushed);
+        }
+    }
+
+    @PreDestroy
+    public void drain() {
+        log.info("Drain session touch buffer before shutdown");
+        flush();
+    }
+}
@@ -0,0 +1,104 @@
+package net.thumbtack.school.notes.jobs;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.dao.UserDao;
+import net.thumbtack.school.notes.views.UserRatingView;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Recomputes the stored note rating sum and note count of every user from the note table,
+ * in id ranges read in parallel, and reports users whose stored values drifted.
+ */
+@Slf4j
+@Component
+public class UserRatingVerifier {
+
+    private static final int REPORTED_USERS = 10;
+
+    private final UserDao userDao;
+    private final ChunkExecutor chunkExecutor;
+
+    @Value("${user_rating_verify_chunk_size}")
+    private int chunkSize;
+
+    private final AtomicLong passes = new AtomicLong();
+    private volatile int lastDrifted;
+    private volatile long lastDurationMillis;
+
+    @Autowired
+    public UserRatingVerifier(UserDao userDao, ChunkExecutor chunkExecutor) {
+        this.userDao = userDao;
+        this.chunkExecutor = chunkExecutor;
+    }
+
+    @Scheduled(initialDelayString = "${user_rating_verify_interval}", fixedDelayString = "${user_rating_verify_interval}")
+    public void verify() {
+        long start = System.currentTimeMillis();
+        int chunks = userDao.getMaxUserId() / chunkSize + 1;
+        Map<Integer, Set<Integer>> suspects = new ConcurrentHashMap<>();
+        chunkExecutor.forEachChunk(chunks, chunk -> {
+            Set<Integer> userIds = new HashSet<>();
+            for (UserRatingView user : getDrift(chunk)) {
+                userIds.add(user.getId());
+            }
+            if (!userIds.isEmpty()) {
+                suspects.put(chunk, userIds);
+            }
+        });
+
+        // A drift seen once may be a rating flush committing meanwhile, so a user only counts as drifted
+        // if the chunk still shows it when read again after the pass.
+        List<Integer> suspectChunks = new ArrayList<>(suspects.keySet());
+        List<UserRatingView> drifted = Collections.synchronizedList(new ArrayList<>());
+        chunkExecutor.forEachChunk(suspectChunks.size(), i -> {
+            int chunk = suspectChunks.get(i);
+            for (UserRatingView user : getDrift(chunk)) {
+                if (suspects.get(chunk).contains(user.getId())) {
+                    drifted.add(user);
+                }
+            }
+        });
+        drifted.sort(Comparator.comparingInt(UserRatingView::getId));
+        for (UserRatingView user : drifted.subList(0, Math.min(REPORTED_USERS, drifted.size()))) {
+            log.warn("Rating of user {} drifted: stored sum {} of {} notes, actual sum {} of {} notes",
+                    user.getId(), user.getNoteRatingSum(), user.getNoteCount(),
+                    user.getActualRatingSum(), user.getActualNoteCount());
+        }
+
+        lastDrifted = drifted.size();
+        lastDurationMillis = System.currentTimeMillis() - start;
+        passes.incrementAndGet();
+        if (lastDrifted != 0) {
+            log.warn("User rating verifier found {} drifted users in {} ms", lastDrifted, lastDurationMillis);
+        }
+    }
+
+    private List<UserRatingView> getDrift(int chunk) {
+        return userDao.getUserRatingDrift(chunk * chunkSize + 1, (chunk + 1) * chunkSize);
+    }
+
+    public long getPasses() {
+        return passes.get();
+    }
+
+    public int getLastDrifted() {
+        return lastDrifted;
+    }
+
+    public long getLastDurationMillis() {
+        return lastDurationMillis;
+    }
+}
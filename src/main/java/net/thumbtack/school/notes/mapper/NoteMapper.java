@@ -1,17 +1,24 @@
 package net.thumbtack.school.notes.mapper;
 
+import net.thumbtack.school.notes.cache.RatingDelta;
+import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
+import net.thumbtack.school.notes.mapper.typehandler.RevisionBodyTypeHandler;
 import net.thumbtack.school.notes.model.Comment;
 import net.thumbtack.school.notes.model.Note;
 import net.thumbtack.school.notes.model.Revision;
 import net.thumbtack.school.notes.model.Section;
+import net.thumbtack.school.notes.views.UserView;
 import org.apache.ibatis.annotations.*;
 import org.apache.ibatis.mapping.FetchType;
 import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.dao.DuplicateKeyException;
 
+import java.math.BigDecimal;
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Mapper
 public interface NoteMapper {
@@ -23,7 +30,8 @@ public interface NoteMapper {
     @Result(property = "owner", column = "ownerId", one = @One(select = "net.thumbtack.school.notes.mapper.UserMapper.getUserById"))
     Section getSection(int id);
 
-    @Select("SELECT id, name FROM section")
+    @Select("SELECT id, name, ownerId FROM section")
+    @Result(property = "owner.id", column = "ownerId")
     List<Section> getAllSection();
 
     @Update("UPDATE section SET name = #{newName} WHERE id = #{section.id}")
@@ -32,30 +40,86 @@ public interface NoteMapper {
     @Delete("DELETE FROM section WHERE id = #{sectionId}")
     void deleteSection(int sectionId);
 
+    @Update("UPDATE user JOIN (SELECT ownerId, COUNT(*) AS notes, SUM(rating) AS ratingSum FROM note " +
+            "WHERE sectionId = #{sectionId} GROUP BY ownerId) AS removed ON removed.ownerId = user.id " +
+            "SET user.noteCount = user.noteCount - removed.notes, user.noteRatingSum = user.noteRatingSum - removed.ratingSum")
+    void removeSectionNotesFromOwners(int sectionId);
+
+    @Select("SELECT DISTINCT ownerId FROM note WHERE sectionId = #{sectionId}")
+    List<Integer> getSectionNoteOwners(int sectionId);
+
     @Insert("INSERT INTO note(subject, timeCreated, ownerId, sectionId) VALUES (#{note.subject}, #{note.timeCreated}," +
             " #{ownerId}, #{sectionId})")
     @Options(useGeneratedKeys = true, keyProperty = "note.id")
     void insertNote(@Param("note") Note note, @Param("ownerId") int ownerId, @Param("sectionId") int sectionId) throws DataIntegrityViolationException;
 
-    @Insert("INSERT INTO revision(body, noteId) VALUES (#{revision.body}, #{noteId})")
+    @Update("UPDATE user SET noteCount = noteCount + 1 WHERE id = #{ownerId}")
+    void addNoteToOwner(int ownerId);
+
+    @Update("UPDATE user JOIN note ON note.ownerId = user.id " +
+            "SET user.noteCount = user.noteCount - 1, user.noteRatingSum = user.noteRatingSum - note.rating " +
+            "WHERE note.id = #{noteId}")
+    void removeNoteFromOwner(int noteId);
+
+    @Select("SELECT ownerId FROM note WHERE id = #{noteId}")
+    Integer getNoteOwner(int noteId);
+
+    @Update("UPDATE note SET revisionCount = revisionCount + 1 WHERE id = #{noteId}")
+    void incrementRevisionCount(int noteId);
+
+    @Insert("INSERT INTO revision(body, noteId, number) SELECT #{revision.body, typeHandler=CurrentRevisionBody}, id, revisionCount FROM note WHERE id = #{noteId}")
+    @Options(useGeneratedKeys = true, keyProperty = "revision.id")
     void insertRevision(@Param("revision") Revision revision, @Param("noteId") int noteId);
 
-    @Select("SELECT id, subject, rating, timeCreated, sectionId, ownerId FROM note WHERE id = #{noteId}")
+    @Update("UPDATE note SET currentRevisionId = #{revisionId} WHERE id = #{noteId}")
+    void updateCurrentRevision(@Param("noteId") int noteId, @Param("revisionId") int revisionId);
+
+    @Select("SELECT revision.id, revision.body, revision.number AS revisionIdForNote FROM note " +
+            "JOIN revision ON revision.id = note.currentRevisionId WHERE note.id = #{noteId} FOR UPDATE")
+    @Result(property = "body", column = "body", typeHandler = RevisionBodyTypeHandler.class)
+    Revision getCurrentRevisionForUpdate(int noteId);
+
+    @Update("UPDATE revision SET body = #{delta, typeHandler=RevisionBody}, delta = TRUE WHERE id = #{revisionId}")
+    void storeRevisionDelta(@Param("revisionId") int revisionId, @Param("delta") String delta);
+
+    @Update("UPDATE revision SET body = #{body, typeHandler=RevisionBody} WHERE id = #{revisionId}")
+    void storeRevisionBody(@Param("revisionId") int revisionId, @Param("body") String body);
+
+    // The delta flag is left out on purpose: delta bodies must be recompressed as they are, not rebuilt.
+    @Select("SELECT revision.id, revision.body FROM revision JOIN note ON note.id = revision.noteId " +
+            "WHERE revision.id > #{afterId} AND revision.id <> note.currentRevisionId " +
+            "AND CHAR_LENGTH(revision.body) >= #{minLength} AND LEFT(revision.body, CHAR_LENGTH(#{marker})) <> #{marker} " +
+            "ORDER BY revision.id LIMIT #{limit}")
+    List<Revision> getUncompressedRevisions(@Param("afterId") int afterId, @Param("minLength") int minLength,
+                                            @Param("marker") String marker, @Param("limit") int limit);
+
+    @Select("SELECT newer.id, newer.body, newer.number AS revisionIdForNote, newer.delta " +
+            "FROM revision AS base JOIN revision AS newer ON newer.noteId = base.noteId AND newer.number > base.number " +
+            "WHERE base.id = #{revisionId} AND newer.number <= (SELECT MIN(snapshot.number) FROM revision AS snapshot " +
+            "WHERE snapshot.noteId = base.noteId AND snapshot.number > base.number AND snapshot.delta = FALSE) " +
+            "ORDER BY newer.number")
+    @Result(property = "body", column = "body", typeHandler = RevisionBodyTypeHandler.class)
+    List<Revision> getNewerRevisionChain(int revisionId);
+
+    @Select("SELECT note.id, subject, ratingSum, numberOfRatings, timeCreated, sectionId, ownerId, currentRevisionId, revisionCount, " +
+            "revision.body AS currentBody, revision.number AS currentNumber " +
+            "FROM note LEFT JOIN revision ON revision.id = note.currentRevisionId WHERE note.id = #{noteId}")
     @Results({
             @Result(property = "id", column = "id"),
-            @Result(property = "revisions", column = "id", javaType = List.class,
-                    many = @Many(select = "getRevisions", fetchType = FetchType.LAZY)),
-            @Result(property = "section", column = "sectionId", one = @One(select = "getSection")),
+            @Result(property = "currentRevision.id", column = "currentRevisionId"),
+            @Result(property = "currentRevision.body", column = "currentBody", typeHandler = RevisionBodyTypeHandler.class),
+            @Result(property = "currentRevision.revisionIdForNote", column = "currentNumber"),
+            @Result(property = "revisionCount", column = "revisionCount"),
+            @Result(property = "section.id", column = "sectionId"),
             @Result(property = "owner", column = "ownerId",
                     one = @One(select = "net.thumbtack.school.notes.mapper.UserMapper.getUserById"))
     })
     Note getNote(int noteId);
 
-    @Select("SELECT id, body, id as idForSelect, " +
-            "(SELECT COUNT(id) FROM revision WHERE noteId = #{noteId} AND id < idForSelect) + 1 as revisionIdForNote " +
-            "FROM revision WHERE noteId = #{noteId}")
+    @Select("SELECT id, body, number AS revisionIdForNote, delta FROM revision WHERE noteId = #{noteId} ORDER BY number")
     @Results({
             @Result(property = "id", column = "id"),
+            @Result(property = "body", column = "body", typeHandler = RevisionBodyTypeHandler.class),
             @Result(property = "comments", column = "id", javaType = List.class,
                     many = @Many(select = "getComments", fetchType = FetchType.LAZY))
     })
@@ -85,13 +149,15 @@ public interface NoteMapper {
     })
     Comment getComment(int commentId);
 
-    @Select("SELECT id, body, (SELECT COUNT(id) FROM revision WHERE noteId = (SELECT noteId FROM revision WHERE id = #{revisionId}) " +
-            "AND id <= #{revisionId}) AS revisionIdForNote, noteId FROM revision WHERE id = #{revisionId}")
-    @Result(property = "note", column = "noteId", one = @One(select = "getNote"))
+    @Select("SELECT id, body, number AS revisionIdForNote, delta, noteId FROM revision WHERE id = #{revisionId}")
+    @Results({
+            @Result(property = "body", column = "body", typeHandler = RevisionBodyTypeHandler.class),
+            @Result(property = "note", column = "noteId", one = @One(select = "getNote"))
+    })
     Revision getRevision(int revisionId);
 
     @Update("UPDATE comment SET body = #{body}, " +
-            "revisionId = (SELECT MAX(id) FROM revision WHERE noteId = (SELECT noteId FROM revision WHERE id = revisionId)) " +
+            "revisionId = (SELECT currentRevisionId FROM note WHERE id = (SELECT noteId FROM revision WHERE id = revisionId)) " +
             "WHERE id = #{comment.id}")
     void editComment(@Param("comment") Comment comment, @Param("body") String body);
 
@@ -101,28 +167,104 @@ public interface NoteMapper {
     @Delete("DELETE FROM comment WHERE revisionId = #{revisionId}")
     void deleteCommentsNote(int revisionId);
 
-    @Update("UPDATE note SET rating = ((rating * numberOfRatings + #{newRating})/(numberOfRatings + 1)), " +
-            "numberOfRatings = numberOfRatings + 1 WHERE id = #{noteId}")
-    void rateNote(@Param("noteId") int noteId, @Param("newRating") int newRating);
+    @Update({"<script>",
+            "UPDATE note SET ratingSum = ratingSum + CASE id",
+                "<foreach item='rating' index='noteId' collection='ratings'>",
+                    " WHEN #{noteId} THEN #{rating.sum}",
+                "</foreach>",
+            " END, numberOfRatings = numberOfRatings + CASE id",
+                "<foreach item='rating' index='noteId' collection='ratings'>",
+                    " WHEN #{noteId} THEN #{rating.count}",
+                "</foreach>",
+            " END WHERE id IN ",
+                "<foreach item='rating' index='noteId' collection='ratings' open='(' separator=',' close=')'>",
+                    "#{noteId}",
+                "</foreach>",
+            "</script>"})
+    void addRatings(@Param("ratings") Map<Integer, RatingDelta> ratings);
+
+    @Select({"<script>",
+            "SELECT id, ownerId, rating FROM note WHERE id IN ",
+                "<foreach item='item' collection='noteIds' open='(' separator=',' close=')'>",
+                    "#{item}",
+                "</foreach>",
+            " ORDER BY id FOR UPDATE",
+            "</script>"})
+    @Result(property = "owner.id", column = "ownerId")
+    List<Note> getRatingsForUpdate(@Param("noteIds") Collection<Integer> noteIds);
+
+    @Update({"<script>",
+            "UPDATE user SET noteRatingSum = noteRatingSum + CASE id",
+                "<foreach item='delta' index='userId' collection='deltas'>",
+                    " WHEN #{userId} THEN #{delta}",
+                "</foreach>",
+            " END WHERE id IN ",
+                "<foreach item='delta' index='userId' collection='deltas' open='(' separator=',' close=')'>",
+                    "#{userId}",
+                "</foreach>",
+            "</script>"})
+    void addOwnerRatings(@Param("deltas") Map<Integer, BigDecimal> deltas);
+
+    @Select({"<script>",
+            "SELECT id, rating FROM user WHERE id IN ",
+                "<foreach item='item' collection='ownerIds' open='(' separator=',' close=')'>",
+                    "#{item}",
+                "</foreach>",
+            "</script>"})
+    List<UserView> getOwnerRatings(@Param("ownerIds") Collection<Integer> ownerIds);
+
+    @Select("SELECT note.id, note.ownerId, note.timeCreated FROM following " +
+            "JOIN note ON note.ownerId = following.followingId " +
+            "WHERE following.userId = #{userId} ORDER BY note.id DESC LIMIT #{limit}")
+    @Results({
+            @Result(property = "id", column = "id"),
+            @Result(property = "owner.id", column = "ownerId")
+    })
+    List<Note> getFeedBackfill(@Param("userId") int userId, @Param("limit") int limit);
 
 
     @Select({"<script>",
-            "SELECT id, subject, rating, timeCreated, sectionId, ownerId ",
+            "SELECT id, subject, rating, ratingSum, numberOfRatings, timeCreated, sectionId, ownerId ",
                     " FROM note ",
             "<where>",
                 "<if test='sectionId != null'> sectionId = #{sectionId}",
                 "</if>",
                 "<if test='userId != null'> AND ownerId = #{userId}",
                 "</if>",
-                "<if test='userId == null'> AND ownerId IN ",
-                    "<if test='idUsers.size() == 0'> (0)",
-                    "</if>",
-                    "<if test='idUsers.size() != 0'>",
-                        "<foreach item='item' index='index' collection='idUsers' ",
-                        "open='(' separator=',' close=')'>",
-                            "#{item}",
-                        "</foreach>",
-                    "</if>",
+                "<if test='userId == null'>",
+                    "<choose>",
+                        "<when test='include.toString() == \"ONLY_FOLLOWINGS\"'> AND EXISTS (SELECT 1 FROM following ",
+                                "WHERE following.userId = #{viewerId} AND following.followingId = note.ownerId)",
+                        "</when>",
+                        "<when test='include.toString() == \"ONLY_IGNORE\"'> AND EXISTS (SELECT 1 FROM `ignore` ",
+                                "WHERE `ignore`.userId = #{viewerId} AND `ignore`.ignoredId = note.ownerId)",
+                        "</when>",
+                        "<when test='include.toString() == \"NOT_IGNORE\"'> AND NOT EXISTS (SELECT 1 FROM `ignore` ",
+                                "WHERE `ignore`.userId = #{viewerId} AND `ignore`.ignoredId = note.ownerId)",
+                        "</when>",
+                    "</choose>",
+                "</if>",
+                "<if test='noteIds != null'> AND id IN ",
+                    "<foreach item='item' collection='noteIds' open='(' separator=',' close=')'>",
+                        "#{item}",
+                    "</foreach>",
+                "</if>",
+                "<if test='excludedIds != null'> AND id NOT IN ",
+                    "<foreach item='item' collection='excludedIds' open='(' separator=',' close=')'>",
+                        "#{item}",
+                    "</foreach>",
+                "</if>",
+                "<if test='cursorId != null'>",
+                    "<choose>",
+                        "<when test='sortByRating.toString() == \"ASC\"'>",
+                            " AND (rating &gt; #{cursorRating} OR (rating = #{cursorRating} AND id &gt; #{cursorId}))",
+                        "</when>",
+                        "<when test='sortByRating.toString() == \"DESC\"'>",
+                            " AND (rating &lt; #{cursorRating} OR (rating = #{cursorRating} AND id &lt; #{cursorId}))",
+                        "</when>",
+                        "<otherwise> AND id &gt; #{cursorId}",
+                        "</otherwise>",
+                    "</choose>",
                 "</if>",
                 "<if test='timeFrom != null'> AND timeCreated &gt;= #{timeFrom} ",
                 "</if>",
@@ -131,24 +273,26 @@ public interface NoteMapper {
                 "<if test='alltags == true and tags != null'> AND ",
                     "<foreach item='item' index='index' collection='tags' ",
                     "separator=' AND '>",
-                        "(SELECT body FROM revision WHERE id = (SELECT MAX(id) FROM revision WHERE noteId = note.id)) ",
+                        "(SELECT body FROM revision WHERE id = note.currentRevisionId) ",
                                 "like (CONCAT('%', #{item}, '%'))",
                     "</foreach>",
                 "</if>",
                 "<if test='alltags == false and tags != null'> AND ",
                     "<foreach item='item' index='index' collection='tags' ",
                     "separator=' OR '>",
-                        "(SELECT body FROM revision WHERE id = (SELECT MAX(id) FROM revision WHERE noteId = note.id)) ",
+                        "(SELECT body FROM revision WHERE id = note.currentRevisionId) ",
                                 "like (CONCAT('%', #{item}, '%'))",
                     "</foreach>",
                 "</if>",
             "</where>",
 
             "<choose>",
-                "<when test='sortByRating.toString() == \"ASC\"'> ORDER BY rating ASC",
+                "<when test='sortByRating.toString() == \"ASC\"'> ORDER BY rating ASC, id ASC",
                 "</when>",
-                "<when test='sortByRating.toString()  == \"DESC\"'> ORDER BY rating DESC",
+                "<when test='sortByRating.toString()  == \"DESC\"'> ORDER BY rating DESC, id DESC",
                 "</when>",
+                "<otherwise> ORDER BY id",
+                "</otherwise>",
             "</choose>",
             "<choose>",
                 "<when test='count == null'> LIMIT #{from}, 18446744073709551615",
@@ -159,15 +303,69 @@ public interface NoteMapper {
             "</script>"})
     @Results({
             @Result(property = "id", column = "id"),
-            @Result(property = "revisions", column = "id", javaType = List.class,
-                    many = @Many(select = "getRevisions", fetchType = FetchType.LAZY)),
-            @Result(property = "section", column = "sectionId", one = @One(select = "getSection")),
-            @Result(property = "owner", column = "ownerId",
-                    one = @One(select = "net.thumbtack.school.notes.mapper.UserMapper.getUserById"))
+            @Result(property = "section.id", column = "sectionId"),
+            @Result(property = "owner.id", column = "ownerId")
     })
     List<Note> getNoteList(@Param("sectionId") Integer sectionId, @Param("sortByRating") SortOrder sortByRating,
-                           @Param("userId") Integer userId, @Param("idUsers") List<Integer> idUsers,
+                           @Param("userId") Integer userId, @Param("viewerId") int viewerId,
+                           @Param("include") IncludeType include,
                            @Param("timeFrom") LocalDateTime timeFrom, @Param("timeTo") LocalDateTime timeTo,
                            @Param("tags") List<String> tags, @Param("alltags") boolean alltags,
-                           @Param("from") int from, @Param("count") Integer count);
-}
\ No newline at end of file
+                           @Param("from") int from, @Param("count") Integer count,
+                           @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId,
+                           @Param("noteIds") List<Integer> noteIds,
+                           @Param("excludedIds") Collection<Integer> excludedIds);
+
+    @Select({"<script>",
+            "SELECT id, body, noteId, number AS revisionIdForNote, delta FROM revision WHERE noteId IN ",
+            "<foreach item='item' collection='noteIds' open='(' separator=',' close=')'>",
+                "#{item}",
+            "</foreach>",
+            " ORDER BY noteId, number",
+            "</script>"})
+    @Results({
+            @Result(property = "id", column = "id"),
+            @Result(property = "body", column = "body", typeHandler = RevisionBodyTypeHandler.class),
+            @Result(property = "note.id", column = "noteId")
+    })
+    List<Revision> getRevisionsByNotes(@Param("noteIds") List<Integer> noteIds);
+
+    @Select({"<script>",
+            "SELECT revision.id, revision.body, revision.noteId, revision.number AS revisionIdForNote, revision.delta ",
+            "FROM note JOIN revision ON revision.id = note.currentRevisionId WHERE note.id IN ",
+            "<foreach item='item' collection='noteIds' open='(' separator=',' close=')'>",
+                "#{item}",
+            "</foreach>",
+            "</script>"})
+    @Results({
+            @Result(property = "id", column = "id"),
+            @Result(property = "body", column = "body", typeHandler = RevisionBodyTypeHandler.class),
+            @Result(property = "note.id", column = "noteId")
+    })
+    List<Revision> getCurrentRevisionsByNotes(@Param("noteIds") List<Integer> noteIds);
+
+    @Select({"<script>",
+            "SELECT id, body, timeCreated, revisionId, ownerId FROM comment WHERE revisionId IN ",
+            "<foreach item='item' collection='revisionIds' open='(' separator=',' close=')'>",
+                "#{item}",
+            "</foreach>",
+            " ORDER BY revisionId, id",
+            "</script>"})
+    @Results({
+            @Result(property = "id", column = "id"),
+            @Result(property = "revision.id", column = "revisionId"),
+            @Result(property = "owner.id", column = "ownerId")
+    })
+    List<Comment> getCommentsByRevisions(@Param("revisionIds") List<Integer> revisionIds);
+
+    @Select("SELECT COALESCE(MAX(id), 0) FROM note")
+    int getMaxNoteId();
+
+    @Select("SELECT note.id, revision.body FROM note JOIN revision ON revision.id = note.currentRevisionId " +
+            "WHERE note.id BETWEEN #{fromId} AND #{toId}")
+    @Results({
+            @Result(property = "id", column = "id"),
+            @Result(property = "currentRevision.body", column = "body", typeHandler = RevisionBodyTypeHandler.class)
+    })
+    List<Note> getCurrentBodies(@Param("fromId") int fromId, @Param("toId") int toId);
+}
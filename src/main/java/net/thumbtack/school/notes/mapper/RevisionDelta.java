@@ -0,0 +1,42 @@
+package net.thumbtack.school.notes.mapper;
+
+/**
+ * Reverse delta of a revision body against the next revision of the same note, stored as
+ * "prefixLength:suffixLength:middle": the body is the next body with everything between the
+ * shared prefix and the shared suffix replaced by middle.
+ */
+public final class RevisionDelta {
+
+    private RevisionDelta() {
+    }
+
+    /**
+     * Revisions 1, interval + 1, 2 * interval + 1, ... are always stored in full, so reading any revision
+     * applies fewer than interval deltas.
+     */
+    public static boolean isSnapshot(int number, int interval) {
+        return (number - 1) % interval == 0;
+    }
+
+    public static String encode(String body, String next) {
+        int limit = Math.min(body.length(), next.length());
+        int prefix = 0;
+        while (prefix < limit && body.charAt(prefix) == next.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        while (suffix < limit - prefix
+                && body.charAt(body.length() - 1 - suffix) == next.charAt(next.length() - 1 - suffix)) {
+            suffix++;
+        }
+        return prefix + ":" + suffix + ":" + body.substring(prefix, body.length() - suffix);
+    }
+
+    public static String decode(String delta, String next) {
+        int first = delta.indexOf(':');
+        int second = delta.indexOf(':', first + 1);
+        int prefix = Integer.parseInt(delta.substring(0, first));
+        int suffix = Integer.parseInt(delta.substring(first + 1, second));
+        return next.substring(0, prefix) + delta.substring(second + 1) + next.substring(next.length() - suffix);
+    }
+}
@@ -1,18 +1,22 @@
 package net.thumbtack.school.notes.mapper;
 
-import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
-import net.thumbtack.school.notes.endpoint.request_param.SearchParams;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
+import net.thumbtack.school.notes.mapper.typehandler.SessionIdTypeHandler;
 import net.thumbtack.school.notes.model.Session;
 import net.thumbtack.school.notes.model.User;
+import net.thumbtack.school.notes.views.NoteRatingView;
 import net.thumbtack.school.notes.views.SessionView;
+import net.thumbtack.school.notes.views.UserRatingView;
+import net.thumbtack.school.notes.views.UserRelationView;
 import net.thumbtack.school.notes.views.UserView;
 import org.apache.ibatis.annotations.*;
 import org.apache.ibatis.mapping.FetchType;
 import org.springframework.dao.DuplicateKeyException;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 @Mapper
 public interface UserMapper {
@@ -22,7 +26,7 @@ public interface UserMapper {
     @Options(useGeneratedKeys = true, keyProperty = "user.id")
     void insertUser(@Param("user") User user) throws DuplicateKeyException;
 
-    @Insert("INSERT INTO session(sessionId, timeLogin, userId) VALUES (#{session.sessionId}, #{session.timeLogin}, #{session.user.id})")
+    @Insert("INSERT INTO session(sessionId, timeLogin, userId) VALUES (#{session.sessionId, typeHandler=SessionId}, #{session.timeLogin}, #{session.user.id})")
     void insertSession(@Param("session") Session session);
 
     @Delete("DELETE FROM session WHERE userId = #{userId}")
@@ -31,33 +35,81 @@ public interface UserMapper {
     @Select("SELECT * FROM user WHERE id = #{id}")
     User getUserById(int id);
 
-    @Select("SELECT sessionId, timeLogin, userId FROM session WHERE sessionId = #{sessionId}")
-    @Result(property = "user", column = "userId", one = @One(select = "getUserById"))
+    @Select("SELECT sessionId, timeLogin, userId FROM session WHERE sessionId = #{sessionId, typeHandler=SessionId}")
+    @Results({
+            @Result(property = "sessionId", column = "sessionId", typeHandler = SessionIdTypeHandler.class),
+            @Result(property = "user", column = "userId", one = @One(select = "getUserById"))
+    })
     Session getSession(@Param("sessionId") String sessionId);
 
     @Update("UPDATE session SET timeLogin = #{currentTime} WHERE userId = #{userId}")
     void updateSession(@Param("userId") int userId, @Param("currentTime") LocalDateTime currentTime);
 
-    @Select("SELECT id, userType, #{sortByRating} as sortByRating, #{from} as `from`, #{count} as count FROM user WHERE id = #{userId}")
+    @Update({"<script>",
+            "UPDATE session SET timeLogin = GREATEST(timeLogin, CASE userId",
+                "<foreach item='time' index='userId' collection='touches'>",
+                    " WHEN #{userId} THEN #{time}",
+                "</foreach>",
+            " END) WHERE userId IN ",
+                "<foreach item='time' index='userId' collection='touches' open='(' separator=',' close=')'>",
+                    "#{userId}",
+                "</foreach>",
+            "</script>"})
+    void updateSessions(@Param("touches") Map<Integer, LocalDateTime> touches);
+
+    @Select("SELECT userId FROM session WHERE timeLogin < #{expiredBefore} ORDER BY timeLogin LIMIT #{limit}")
+    List<Integer> getExpiredSessionUsers(@Param("expiredBefore") LocalDateTime expiredBefore, @Param("limit") int limit);
+
+    @Select({"<script>",
+            "SELECT userId FROM session WHERE timeLogin &lt; #{expiredBefore} AND userId IN ",
+                "<foreach item='item' collection='userIds' open='(' separator=',' close=')'>",
+                    "#{item}",
+                "</foreach>",
+            " FOR UPDATE",
+            "</script>"})
+    List<Integer> lockExpiredSessions(@Param("userIds") List<Integer> userIds,
+                                      @Param("expiredBefore") LocalDateTime expiredBefore);
+
+    @Delete({"<script>",
+            "DELETE FROM session WHERE timeLogin &lt; #{expiredBefore} AND userId IN ",
+                "<foreach item='item' collection='userIds' open='(' separator=',' close=')'>",
+                    "#{item}",
+                "</foreach>",
+            "</script>"})
+    int deleteExpiredSessions(@Param("userIds") List<Integer> userIds, @Param("expiredBefore") LocalDateTime expiredBefore);
+
+    String listParamsColumn = "{id=id,sortByRating=sortByRating,from=from,count=count," +
+            "cursorRating=cursorRating,cursorId=cursorId}";
+
+    @Select("SELECT id, userType, #{sortByRating} as sortByRating, #{from} as `from`, #{count} as count, " +
+            "#{cursorRating} as cursorRating, #{cursorId} as cursorId FROM user WHERE id = #{userId}")
     @Results({
             @Result(property = "id", column = "id"),
-            @Result(property = "followings", column = "{id=id,sortByRating=sortByRating,from=from,count=count}", javaType = List.class,
+            @Result(property = "followings", column = listParamsColumn, javaType = List.class,
                     many = @Many(select = "getFollowings", fetchType = FetchType.LAZY)),
-            @Result(property = "followers", column = "{id=id,sortByRating=sortByRating,from=from,count=count}", javaType = List.class,
+            @Result(property = "followers", column = listParamsColumn, javaType = List.class,
                     many = @Many(select = "getFollowers", fetchType = FetchType.LAZY)),
-            @Result(property = "ignore", column = "{id=id,sortByRating=sortByRating,from=from,count=count}", javaType = List.class,
+            @Result(property = "ignore", column = listParamsColumn, javaType = List.class,
                     many = @Many(select = "getIgnore", fetchType = FetchType.LAZY)),
-            @Result(property = "ignoreBy", column = "{id=id,sortByRating=sortByRating,from=from,count=count}", javaType = List.class,
+            @Result(property = "ignoreBy", column = listParamsColumn, javaType = List.class,
                     many = @Many(select = "getIgnoreBy", fetchType = FetchType.LAZY))
     })
     UserView getUserViewById(@Param("userId") int userId, @Param("sortByRating") SortOrder sortByRating, @Param("from") int from,
-                             @Param("count") Integer count);
+                             @Param("count") Integer count, @Param("cursorRating") Double cursorRating,
+                             @Param("cursorId") Integer cursorId);
 
-    @Select("SELECT sessionId, timeLogin, userId, #{sortByRating} as sortByRating, #{from} as `from`, #{count} as count " +
-            "FROM session WHERE sessionId = #{sessionId}")
-    @Result(property = "user", column = "{userId=userId,sortByRating=sortByRating,from=from,count=count}", one = @One(select = "getUserViewById"))
+    @Select("SELECT sessionId, timeLogin, userId, #{sortByRating} as sortByRating, #{from} as `from`, #{count} as count, " +
+            "#{cursorRating} as cursorRating, #{cursorId} as cursorId " +
+            "FROM session WHERE sessionId = #{sessionId, typeHandler=SessionId}")
+    @Results({
+            @Result(property = "sessionId", column = "sessionId", typeHandler = SessionIdTypeHandler.class),
+            @Result(property = "user", column = "{userId=userId,sortByRating=sortByRating,from=from,count=count," +
+                            "cursorRating=cursorRating,cursorId=cursorId}",
+                    one = @One(select = "getUserViewById"))
+    })
     SessionView getSessionView(@Param("sessionId") String sessionId, @Param("sortByRating") SortOrder sortByRating,
-                               @Param("from") int from, @Param("count") Integer count);
+                               @Param("from") int from, @Param("count") Integer count,
+                               @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId);
 
     @Select("SELECT * FROM user WHERE login = #{login} AND password = #{password} AND deleted = false")
     User getUserByLoginAndPassword(@Param("login") String login, @Param("password") String password);
@@ -80,10 +132,12 @@ public interface UserMapper {
 
 
 
-    @Insert("INSERT INTO following(userId, followingId) VALUES (#{userId}, #{followingId})")
+    @Insert("INSERT INTO following(userId, followingId) VALUES (#{userId}, #{followingId}) " +
+            "ON DUPLICATE KEY UPDATE followingId = followingId")
     void insertToFollowing(@Param("userId") int userId, @Param("followingId") int followingId);
 
-    @Insert("INSERT INTO `ignore`(userId, ignoredId) VALUES (#{userId}, #{ignoredId})")
+    @Insert("INSERT INTO `ignore`(userId, ignoredId) VALUES (#{userId}, #{ignoredId}) " +
+            "ON DUPLICATE KEY UPDATE ignoredId = ignoredId")
     void insertToIgnore(@Param("userId") int userId, @Param("ignoredId") int ignoredId);
 
     @Delete("DELETE FROM following WHERE userId = #{userId} AND followingId = #{followingId}")
@@ -92,11 +146,26 @@ public interface UserMapper {
     @Delete("DELETE FROM `ignore` WHERE userId = #{userId} AND ignoredId = #{ignoredId}")
     void deleteFromIgnore(@Param("userId") int userId, @Param("ignoredId") int ignoredId);
 
-    String parametersString = " <choose>" +
-                        "<when test='sortByRating.toString() == \"ASC\"'> ORDER BY rating ASC" +
+    String cursorString = "<if test='cursorId != null'>" +
+                        "<choose>" +
+                            "<when test='sortByRating.toString() == \"ASC\"'>" +
+                                " AND (rating &gt; #{cursorRating} OR (rating = #{cursorRating} AND id &gt; #{cursorId}))" +
+                            "</when>" +
+                            "<when test='sortByRating.toString() == \"DESC\"'>" +
+                                " AND (rating &lt; #{cursorRating} OR (rating = #{cursorRating} AND id &lt; #{cursorId}))" +
+                            "</when>" +
+                            "<otherwise> AND id &gt; #{cursorId}" +
+                            "</otherwise>" +
+                        "</choose>" +
+                    "</if>";
+
+    String parametersString = "<choose>" +
+                        "<when test='sortByRating.toString() == \"ASC\"'> ORDER BY rating ASC, id ASC" +
                         "</when>" +
-                        "<when test='sortByRating.toString()  == \"DESC\"'> ORDER BY rating DESC" +
+                        "<when test='sortByRating.toString()  == \"DESC\"'> ORDER BY rating DESC, id DESC" +
                         "</when>" +
+                        "<otherwise> ORDER BY id" +
+                        "</otherwise>" +
                     "</choose>" +
                     "<choose>" +
                         "<when test='count == null'> LIMIT #{from}, 18446744073709551615" +
@@ -105,123 +174,107 @@ public interface UserMapper {
                         "</when>" +
                     "</choose>";
 
-    String selectString = "SELECT id, firstName, lastName, patronymic, login, password, " +
-            "(SELECT COALESCE(SUM(rating) / NULLIF(COUNT(id), 0), 0) FROM note WHERE ownerId = user.id) as rating, " +
+    String selectString = "SELECT id, firstName, lastName, patronymic, login, password, rating, " +
             "userType, deleted, timeRegistered FROM user ";
 
     @Select({"<script>",
             selectString,
+            "<where>", cursorString, "</where>",
             parametersString,
             "</script>"})
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "online", column = "id", one = @One(select = "isOnline"))
-    })
     List<UserView> getAllUsers(@Param("sortByRating") SortOrder sortByRating, @Param("from") int from,
-                               @Param("count")Integer count);
+                               @Param("count")Integer count,
+            @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId);
 
     @Select({"<script>",
             selectString,
-            "WHERE id in (SELECT followingId FROM following WHERE userId = #{id})",
+            "<where> id in (SELECT followingId FROM following WHERE userId = #{id})", cursorString, "</where>",
             parametersString,
             "</script>"})
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "online", column = "id", one = @One(select = "isOnline"))
-    })
     List<UserView> getFollowings(@Param("id") int id, @Param("sortByRating") SortOrder sortByRating, @Param("from") int from,
-                                 @Param("count")Integer count);
+                                 @Param("count")Integer count,
+            @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId);
 
     @Select({"<script>",
             selectString,
-            "WHERE id in (SELECT userId FROM following WHERE followingId = #{id})",
+            "<where> id in (SELECT userId FROM following WHERE followingId = #{id})", cursorString, "</where>",
             parametersString,
             "</script>"})
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "online", column = "id", one = @One(select = "isOnline"))
-    })
     List<UserView> getFollowers(@Param("id") int id, @Param("sortByRating") SortOrder sortByRating, @Param("from") int from,
-                                @Param("count")Integer count);
+                                @Param("count")Integer count,
+            @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId);
 
     @Select({"<script>",
             selectString,
-            "WHERE id in (SELECT ignoredId FROM `ignore` WHERE userId = #{id})",
+            "<where> id in (SELECT ignoredId FROM `ignore` WHERE userId = #{id})", cursorString, "</where>",
             parametersString,
             "</script>"})
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "online", column = "id", one = @One(select = "isOnline"))
-    })
     List<UserView> getIgnore(@Param("id") int id, @Param("sortByRating") SortOrder sortByRating, @Param("from") int from,
-                             @Param("count")Integer count);
+                             @Param("count")Integer count,
+            @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId);
 
     @Select({"<script>",
             selectString,
-            "WHERE id in (SELECT userId FROM `ignore` WHERE ignoredId = #{id})",
+            "<where> id in (SELECT userId FROM `ignore` WHERE ignoredId = #{id})", cursorString, "</where>",
             parametersString,
             "</script>"})
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "online", column = "id", one = @One(select = "isOnline"))
-    })
     List<UserView> getIgnoreBy(@Param("id") int id, @Param("sortByRating") SortOrder sortByRating, @Param("from") int from,
-                               @Param("count")Integer count);
+                               @Param("count")Integer count,
+            @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId);
 
     @Select({"<script>",
             selectString,
-            "<where>" +
-                "<if test='type.toString() == \"HIGH_RATING\"'> rating = (SELECT MAX(rating) FROM user WHERE rating != 0)",
-                "</if>",
-                "<if test='type.toString() == \"LOW_RATING\"'> rating = (SELECT MIN(rating) FROM user WHERE rating != 0)",
-                "</if>",
-            "</where>" +
-            parametersString,
+            "WHERE id IN ",
+                "<foreach item='item' collection='ids' open='(' separator=',' close=')'>",
+                    "#{item}",
+                "</foreach>",
             "</script>"})
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "online", column = "id", one = @One(select = "isOnline"))
-    })
-    List<UserView> getUsersWithHighOrLowRating(@Param("type") SearchParams type, @Param("sortByRating") SortOrder sortByRating,
-                                               @Param("from") int from, @Param("count") Integer count);
+    List<UserView> getUsersByIds(@Param("ids") List<Integer> ids);
 
     @Select({"<script>",
-            selectString + "WHERE deleted = true",
+            selectString + "<where> deleted = true", cursorString, "</where>",
             parametersString,
             "</script>"})
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "online", column = "id", one = @One(select = "isOnline"))
-    })
     List<UserView> getDeletedUsers(@Param("sortByRating") SortOrder sortByRating, @Param("from") int from,
-                                   @Param("count") Integer count);
+                                   @Param("count") Integer count,
+            @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId);
 
     @Select({"<script>",
-            selectString + "WHERE userType = 'ADMIN'",
+            selectString + "<where> userType = 'ADMIN'", cursorString, "</where>",
             parametersString,
             "</script>"})
-    @Results({
-            @Result(property = "id", column = "id"),
-            @Result(property = "online", column = "id", one = @One(select = "isOnline"))
-    })
     List<UserView> getSuperUsers(@Param("sortByRating") SortOrder sortByRating, @Param("from") int from,
-                                 @Param("count") Integer count);
+                                 @Param("count") Integer count,
+            @Param("cursorRating") Double cursorRating, @Param("cursorId") Integer cursorId);
 
-    @Select("SELECT EXISTS(SELECT id FROM session WHERE userId = #{userId})")
-    Boolean isOnline(int userId);
+    @Select("SELECT userId FROM session")
+    List<Integer> getOnlineUserIds();
+
+    @Select("SELECT id, rating FROM user")
+    List<UserView> getUserRatings();
 
     @Select({"<script>",
-            "<choose>",
-                "<when test='include.toString() == \"ONLY_FOLLOWINGS\"'> SELECT followingId FROM following WHERE userId = #{userId}",
-                "</when>",
-                "<when test='include.toString() == \"ONLY_IGNORE\"'> SELECT ignoredId FROM `ignore` WHERE userId = #{userId}",
-                "</when>",
-                "<when test='include.toString() == \"NOT_IGNORE\"'> SELECT id FROM user ",
-                        "WHERE id NOT IN (SELECT ignoredId FROM `ignore` WHERE userId = #{userId})",
-                "</when>",
-                "<when test='include.toString() == \"NONE\"'> SELECT id FROM user ",
-                "</when>",
-            "</choose>",
+            "SELECT note.id, note.ownerId, note.ratingSum, note.numberOfRatings, note.rating, ",
+                    "user.noteRatingSum AS ownerRatingSum, user.noteCount AS ownerNoteCount ",
+                    "FROM note JOIN user ON user.id = note.ownerId WHERE note.id IN ",
+                "<foreach item='item' collection='noteIds' open='(' separator=',' close=')'>",
+                    "#{item}",
+                "</foreach>",
             "</script>"})
-    List<Integer> getIdUsers(@Param("userId") int userId, @Param("include") IncludeType include);
+    List<NoteRatingView> getNoteRatings(@Param("noteIds") Collection<Integer> noteIds);
+
+    @Select("SELECT COALESCE(MAX(id), 0) FROM user")
+    int getMaxUserId();
+
+    @Select("SELECT user.id, user.noteRatingSum, user.noteCount, COALESCE(SUM(note.rating), 0) AS actualRatingSum, " +
+            "COUNT(note.id) AS actualNoteCount FROM user LEFT JOIN note ON note.ownerId = user.id " +
+            "WHERE user.id BETWEEN #{fromId} AND #{toId} GROUP BY user.id " +
+            "HAVING user.noteRatingSum <> actualRatingSum OR user.noteCount <> actualNoteCount")
+    List<UserRatingView> getUserRatingDrift(@Param("fromId") int fromId, @Param("toId") int toId);
+
+    @Select("SELECT userId, followingId AS targetId FROM following")
+    List<UserRelationView> getAllFollowings();
+
+    @Select("SELECT userId, ignoredId AS targetId FROM `ignore`")
+    List<UserRelationView> getAllIgnore();
 }
\ No newline at end of file
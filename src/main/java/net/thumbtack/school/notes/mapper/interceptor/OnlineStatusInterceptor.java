@@ -0,0 +1,44 @@
+package net.thumbtack.school.notes.mapper.interceptor;
+
+import net.thumbtack.school.notes.index.PresenceIndex;
+import net.thumbtack.school.notes.views.UserView;
+import org.apache.ibatis.executor.resultset.ResultSetHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Fills UserView.online from the in-memory PresenceIndex for every mapped UserView,
+ * including lazily loaded lists, instead of a per-row isOnline select.
+ */
+@Component
+@Intercepts(@Signature(type = ResultSetHandler.class, method = "handleResultSets", args = Statement.class))
+public class OnlineStatusInterceptor implements Interceptor {
+
+    private final PresenceIndex presenceIndex;
+
+    @Autowired
+    public OnlineStatusInterceptor(PresenceIndex presenceIndex) {
+        this.presenceIndex = presenceIndex;
+    }
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        Object result = invocation.proceed();
+        if (result instanceof List) {
+            for (Object row : (List<?>) result) {
+                if (row instanceof UserView) {
+                    UserView user = (UserView) row;
+                    user.setOnline(presenceIndex.isOnline(user.getId()));
+                }
+            }
+        }
+        return result;
+    }
+}
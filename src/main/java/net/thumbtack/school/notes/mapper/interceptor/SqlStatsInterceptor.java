@@ -0,0 +1,57 @@
+package net.thumbtack.school.notes.mapper.interceptor;
+
+import net.thumbtack.school.notes.debugging.RequestSqlStats;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.mapping.MappedStatement;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.apache.ibatis.reflection.MetaObject;
+import org.apache.ibatis.reflection.SystemMetaObject;
+import org.apache.ibatis.session.ResultHandler;
+import org.springframework.stereotype.Component;
+
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Counts statements that reach the database, their rows and time, into the stats of the current request.
+ * Lazy @One/@Many loads go through the same handlers, so they are counted too.
+ */
+@Component
+@Intercepts({
+        @Signature(type = StatementHandler.class, method = "query", args = {Statement.class, ResultHandler.class}),
+        @Signature(type = StatementHandler.class, method = "update", args = Statement.class),
+        @Signature(type = StatementHandler.class, method = "batch", args = Statement.class)
+})
+public class SqlStatsInterceptor implements Interceptor {
+
+    @Override
+    public Object intercept(Invocation invocation) throws Throwable {
+        RequestSqlStats stats = RequestSqlStats.current();
+        if (stats == null) {
+            return invocation.proceed();
+        }
+        long start = System.nanoTime();
+        Object result = invocation.proceed();
+        long nanos = System.nanoTime() - start;
+        long rows = 0;
+        if (result instanceof List) {
+            rows = ((List<?>) result).size();
+        } else if (result instanceof Integer) {
+            rows = (Integer) result;
+        }
+        stats.record(statementId(invocation.getTarget()), rows, nanos);
+        return result;
+    }
+
+    private static String statementId(Object handler) {
+        MetaObject meta = SystemMetaObject.forObject(handler);
+        while (meta.hasGetter("h")) {
+            meta = SystemMetaObject.forObject(meta.getValue("h.target"));
+        }
+        MappedStatement mappedStatement = (MappedStatement) meta.getValue("delegate.mappedStatement");
+        return mappedStatement.getId();
+    }
+}
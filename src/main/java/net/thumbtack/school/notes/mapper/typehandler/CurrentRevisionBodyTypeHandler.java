@@ -0,0 +1,13 @@
+package net.thumbtack.school.notes.mapper.typehandler;
+
+/**
+ * Writes the current revision body as plain text, so the tag filter can match it with LIKE.
+ * Only a body starting with the compression marker is encoded, to keep stored values unambiguous.
+ */
+public class CurrentRevisionBodyTypeHandler extends RevisionBodyTypeHandler {
+
+    @Override
+    protected int compressThreshold() {
+        return Integer.MAX_VALUE;
+    }
+}
@@ -0,0 +1,100 @@
+package net.thumbtack.school.notes.mapper.typehandler;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Stores revision bodies of at least COMPRESS_THRESHOLD chars as MARKER followed by Base64 of the deflated
+ * utf8 text, when that is shorter. Values without the marker, such as rows written before compression, are
+ * read as they are. A body that itself starts with the marker is always encoded, so the marker is never ambiguous.
+ * Bodies written through CurrentRevisionBodyTypeHandler are only escaped, never compressed.
+ */
+public class RevisionBodyTypeHandler extends BaseTypeHandler<String> {
+
+    public static final String MARKER = "\u0000z1:";
+    public static final int COMPRESS_THRESHOLD = 1024;
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String body, JdbcType jdbcType) throws SQLException {
+        ps.setString(i, encode(body, compressThreshold()));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return decode(rs.getString(columnName));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return decode(rs.getString(columnIndex));
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return decode(cs.getString(columnIndex));
+    }
+
+    protected int compressThreshold() {
+        return COMPRESS_THRESHOLD;
+    }
+
+    public static boolean isCompressible(String body) {
+        return isCompressible(body, COMPRESS_THRESHOLD);
+    }
+
+    private static boolean isCompressible(String body, int threshold) {
+        return body.length() >= threshold || body.startsWith(MARKER);
+    }
+
+    private static String encode(String body, int threshold) {
+        if (!isCompressible(body, threshold)) {
+            return body;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        deflater.setInput(body.getBytes(StandardCharsets.UTF_8));
+        deflater.finish();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        while (!deflater.finished()) {
+            out.write(buffer, 0, deflater.deflate(buffer));
+        }
+        deflater.end();
+        String encoded = MARKER + Base64.getEncoder().encodeToString(out.toByteArray());
+        return encoded.length() < body.length() || body.startsWith(MARKER) ? encoded : body;
+    }
+
+    public static String decode(String stored) {
+        if (stored == null || !stored.startsWith(MARKER)) {
+            return stored;
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(Base64.getDecoder().decode(stored.substring(MARKER.length())));
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            while (!inflater.finished()) {
+                int length = inflater.inflate(buffer);
+                if (length == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    throw new IllegalStateException("Truncated compressed revision body");
+                }
+                out.write(buffer, 0, length);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (DataFormatException ex) {
+            throw new IllegalStateException("Corrupt compressed revision body", ex);
+        } finally {
+            inflater.end();
+        }
+    }
+}
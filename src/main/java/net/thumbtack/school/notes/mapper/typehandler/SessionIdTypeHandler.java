@@ -0,0 +1,65 @@
+package net.thumbtack.school.notes.mapper.typehandler;
+
+import org.apache.ibatis.type.BaseTypeHandler;
+import org.apache.ibatis.type.JdbcType;
+
+import java.nio.ByteBuffer;
+import java.sql.CallableStatement;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.UUID;
+
+/**
+ * Maps the UUID string carried by the JAVASESSIONID cookie to the 16-byte session.sessionId key.
+ * A value that is not a UUID is bound as NULL, so it never matches a stored session.
+ */
+public class SessionIdTypeHandler extends BaseTypeHandler<String> {
+
+    @Override
+    public void setNonNullParameter(PreparedStatement ps, int i, String sessionId, JdbcType jdbcType) throws SQLException {
+        byte[] key = toBytes(sessionId);
+        if (key == null) {
+            ps.setNull(i, Types.BINARY);
+        } else {
+            ps.setBytes(i, key);
+        }
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, String columnName) throws SQLException {
+        return fromBytes(rs.getBytes(columnName));
+    }
+
+    @Override
+    public String getNullableResult(ResultSet rs, int columnIndex) throws SQLException {
+        return fromBytes(rs.getBytes(columnIndex));
+    }
+
+    @Override
+    public String getNullableResult(CallableStatement cs, int columnIndex) throws SQLException {
+        return fromBytes(cs.getBytes(columnIndex));
+    }
+
+    public static byte[] toBytes(String sessionId) {
+        UUID uuid;
+        try {
+            uuid = UUID.fromString(sessionId);
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+        return ByteBuffer.allocate(16)
+                .putLong(uuid.getMostSignificantBits())
+                .putLong(uuid.getLeastSignificantBits())
+                .array();
+    }
+
+    public static String fromBytes(byte[] key) {
+        if (key == null || key.length != 16) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(key);
+        return new UUID(buffer.getLong(), buffer.getLong()).toString();
+    }
+}
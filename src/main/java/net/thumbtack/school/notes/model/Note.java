@@ -12,11 +12,15 @@ public class Note {
     private int id;
     private String subject;
     private double rating;
+    private long ratingSum;
+    private int numberOfRatings;
     private LocalDateTime timeCreated;
 
     private User owner;
     private Section section;
 
+    private Revision currentRevision;
+    private int revisionCount;
     private List<Revision> revisions;
 
 
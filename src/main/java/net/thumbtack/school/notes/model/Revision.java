@@ -11,6 +11,7 @@ public class Revision {
     private int id;
     private String body;
     private int revisionIdForNote;
+    private boolean delta;
 
     private Note note;
 
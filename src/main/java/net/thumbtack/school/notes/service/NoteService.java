@@ -1,6 +1,9 @@
 package net.thumbtack.school.notes.service;
 
 import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.cache.EntityVersions;
+import net.thumbtack.school.notes.cache.FeedTimelines;
+import net.thumbtack.school.notes.cache.NoteInfoCache;
 import net.thumbtack.school.notes.dao.NoteDao;
 import net.thumbtack.school.notes.dao.UserDao;
 import net.thumbtack.school.notes.dto.requests.note.*;
@@ -10,11 +13,15 @@ import net.thumbtack.school.notes.dto.responses.note.GetCommentDtoResponse;
 import net.thumbtack.school.notes.dto.responses.note.GetNoteListDtoResponse;
 import net.thumbtack.school.notes.dto.responses.note.GetRevisionDtoResponse;
 import net.thumbtack.school.notes.dto.responses.note.SectionDataDtoResponse;
+import net.thumbtack.school.notes.endpoint.request_param.FeedCursor;
 import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerErrorCode;
 import net.thumbtack.school.notes.exception.ServerException;
 import net.thumbtack.school.notes.model.*;
+import org.apache.commons.lang3.tuple.ImmutablePair;
+import org.apache.commons.lang3.tuple.Pair;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
@@ -32,14 +39,27 @@ public class NoteService {
 
     private final UserDao userDao;
     private final NoteDao noteDao;
+    private final SessionTokenService sessionTokens;
+    private final NoteInfoCache noteInfoCache;
+    private final EntityVersions entityVersions;
+    private final FeedTimelines feedTimelines;
 
     @Value("${user_idle_timeout}")
     private int userIdleTimeout;
 
+    @Value("${note_list_stream_page_size}")
+    private int streamPageSize;
+
     @Autowired
-    public NoteService(UserDao userDao, NoteDao noteDao) throws IOException {
+    public NoteService(UserDao userDao, NoteDao noteDao, SessionTokenService sessionTokens,
+                       NoteInfoCache noteInfoCache, EntityVersions entityVersions,
+                       FeedTimelines feedTimelines) throws IOException {
         this.userDao = userDao;
         this.noteDao = noteDao;
+        this.sessionTokens = sessionTokens;
+        this.noteInfoCache = noteInfoCache;
+        this.entityVersions = entityVersions;
+        this.feedTimelines = feedTimelines;
     }
 
     public SectionDataDtoResponse createSection(String sessionId, SectionNameDtoRequest request) throws ServerException {
@@ -47,6 +67,7 @@ public class NoteService {
         User user = getUserBySessionId(sessionId);
         Section section = new Section(request.getName());
         noteDao.createSection(section, user.getId());
+        entityVersions.sectionsChanged();
         return new SectionDataDtoResponse(section.getId(), section.getName());
     }
 
@@ -56,6 +77,7 @@ public class NoteService {
         Section section = getSection(sectionId);
         checkIsOwner(user, section);
         noteDao.renameSection(section, request.getName());
+        entityVersions.sectionsChanged();
         return new SectionDataDtoResponse(sectionId, request.getName());
     }
 
@@ -65,18 +87,24 @@ public class NoteService {
         Section section = getSection(sectionId);
         checkIsAdminOrOwner(user, section);
         noteDao.deleteSection(sectionId);
+        entityVersions.sectionDeleted();
     }
 
     public SectionDataDtoResponse getSectionInfo(String sessionId, int sectionId) throws ServerException {
         log.debug("Execute getSectionInfo with id {} by user with sessionId {}", sectionId, sessionId);
-        getUserBySessionId(sessionId);
+        getUserBySessionToken(sessionId);
         Section section = getSection(sectionId);
         return new SectionDataDtoResponse(section.getId(), section.getName());
     }
 
+    public String getSectionListETag(String sessionId) throws ServerException {
+        getUserBySessionToken(sessionId);
+        return entityVersions.sectionsETag();
+    }
+
     public List<SectionDataDtoResponse> getSectionList(String sessionId) throws ServerException {
         log.debug("Execute getSectionList by user with sessionId {}", sessionId);
-        getUserBySessionId(sessionId);
+        getUserBySessionToken(sessionId);
         List<Section> sections = noteDao.getSectionList();
 
         List<SectionDataDtoResponse> response = new ArrayList<>();
@@ -95,37 +123,55 @@ public class NoteService {
         Revision revision = new Revision(request.getBody());
         noteDao.createNote(note, user.getId(), request.getSectionId());
         noteDao.createRevision(revision, note.getId());
+        entityVersions.noteChanged(note.getId());
+        feedTimelines.noteChanged(user.getId(), note.getId());
         return new GetNoteInfoDtoResponse(note.getId(), request.getSubject(), request.getBody(), request.getSectionId(),
                 user.getId(), timeCreated.toString(), 1);
     }
 
+    public String getNoteInfoETag(String sessionId, int noteId) throws ServerException {
+        getUserBySessionToken(sessionId);
+        return entityVersions.noteETag(noteId);
+    }
+
     public GetNoteInfoDtoResponse getNoteInfo(String sessionId, int noteId) throws ServerException {
         log.debug("Execute getNoteInfo with id {} by user with sessionId {}", noteId, sessionId);
-        getUserBySessionId(sessionId);
+        long stamp = noteInfoCache.stamp();
+        getUserBySessionToken(sessionId);
+        GetNoteInfoDtoResponse response = noteInfoCache.get(noteId);
+        if (response != null) {
+            return response;
+        }
         Note note = getNote(noteId);
-        int numberCurrentRevision = note.getRevisions().size() - 1;
-        Revision revision = note.getRevisions().get(numberCurrentRevision);
-        return new GetNoteInfoDtoResponse(note.getId(), note.getSubject(), revision.getBody(), note.getSection().getId(),
-                note.getOwner().getId(), note.getTimeCreated().toString(), numberCurrentRevision + 1);
+        Revision revision = note.getCurrentRevision();
+        response = new GetNoteInfoDtoResponse(note.getId(), note.getSubject(), revision.getBody(), note.getSection().getId(),
+                note.getOwner().getId(), note.getTimeCreated().toString(), note.getRevisionCount());
+        noteInfoCache.put(response, stamp);
+        return response;
     }
 
     public GetNoteInfoDtoResponse editOrTransferNote(String sessionId, int noteId, EditOrTransferNoteDtoRequest request) throws ServerException {
         log.debug("Execute editOrTransferNote with id {} by user with sessionId {}", noteId, sessionId);
         User user = getUserBySessionId(sessionId);
         Note note = getNote(noteId);
-        int currentRevisionNumber = note.getRevisions().size() - 1;
-        Revision revision = note.getRevisions().get(currentRevisionNumber);
+        int currentRevisionNumber = note.getRevisionCount() - 1;
+        Revision revision = note.getCurrentRevision();
         if (request.getBody() != null) {
             checkIsOwner(user, note);
             revision.setBody(request.getBody());
             currentRevisionNumber++;
             noteDao.createRevision(revision, noteId);
+            entityVersions.noteChanged(noteId);
         }
 
         if (request.getSectionId() != null) {
             checkIsAdminOrOwner(user, note);
             noteDao.transferNote(noteId, request.getSectionId());
             note.getSection().setId(request.getSectionId());
+            entityVersions.noteChanged(noteId);
+        }
+        if (request.getBody() != null || request.getSectionId() != null) {
+            feedTimelines.noteChanged(note.getOwner().getId(), noteId);
         }
         return new GetNoteInfoDtoResponse(noteId, note.getSubject(), revision.getBody(), note.getSection().getId(),
                 note.getOwner().getId(), note.getTimeCreated().toString(), currentRevisionNumber + 1);
@@ -137,29 +183,36 @@ public class NoteService {
         Note note = getNote(noteId);
         checkIsAdminOrOwner(user, note);
         noteDao.deleteNote(noteId);
+        entityVersions.noteChanged(noteId);
+        feedTimelines.noteDeleted(noteId);
     }
 
     public GetCommentInfoDtoResponse createComment(String sessionId, CreateCommentDtoRequest request) throws ServerException {
         log.debug("Execute createComment in note with id {} by user with sessionId {}", request.getNoteId(), sessionId);
         User user = getUserBySessionId(sessionId);
         Note note = getNote(request.getNoteId());
-        int numberCurrentRevision = note.getRevisions().size() - 1;
-        Revision revision = note.getRevisions().get(numberCurrentRevision);
+        Revision revision = note.getCurrentRevision();
 
         LocalDateTime timeCreated = LocalDateTime.now();
         Comment comment = new Comment(request.getBody(), timeCreated);
         noteDao.createComment(comment, user.getId(), revision.getId());
+        entityVersions.commentsChanged(note.getId());
         return new GetCommentInfoDtoResponse(comment.getId(), comment.getBody(), note.getId(), user.getId(),
-                numberCurrentRevision + 1, timeCreated.toString());
+                note.getRevisionCount(), timeCreated.toString());
+    }
+
+    public String getCommentsNotesETag(String sessionId, int noteId) throws ServerException {
+        getUserBySessionToken(sessionId);
+        return entityVersions.commentsETag(noteId);
     }
 
     public List<GetCommentInfoDtoResponse> getCommentsNotes(String sessionId, int noteId) throws ServerException {
         log.debug("Execute getCommentsNotes with id {} by user with sessionId {}", noteId, sessionId);
-        getUserBySessionId(sessionId);
-        Note note = getNote(noteId);
+        getUserBySessionToken(sessionId);
+        getNote(noteId);
 
         List<GetCommentInfoDtoResponse> response = new ArrayList<>();
-        for (Revision revision : note.getRevisions()) {
+        for (Revision revision : noteDao.getRevisions(noteId)) {
             for (Comment comment : revision.getComments())
                 response.add(new GetCommentInfoDtoResponse(comment.getId(), comment.getBody(), noteId, comment.getOwner().getId(),
                     revision.getRevisionIdForNote(), comment.getTimeCreated().toString()));
@@ -173,6 +226,7 @@ public class NoteService {
         Comment comment = getComment(commentId);
         checkIsOwner(user, comment);
         noteDao.editComment(comment, request.getBody());
+        entityVersions.commentsChanged(comment.getRevision().getNote().getId());
         comment.setBody(request.getBody());
         return new GetCommentInfoDtoResponse(comment.getId(), comment.getBody(), comment.getRevision().getNote().getId(),
                 comment.getOwner().getId(), comment.getRevision().getRevisionIdForNote(), comment.getTimeCreated().toString());
@@ -185,6 +239,7 @@ public class NoteService {
         Note note = comment.getRevision().getNote();
         checkIsOwnerNoteOrCommentOrAdmin(user, comment, note);
         noteDao.deleteComment(commentId);
+        entityVersions.commentsChanged(note.getId());
     }
 
     public void deleteCommentsNote(String sessionId, int noteId) throws ServerException {
@@ -192,7 +247,8 @@ public class NoteService {
         User user = getUserBySessionId(sessionId);
         Note note = getNote(noteId);
         checkIsOwner(user, note);
-        noteDao.deleteCommentsNote(note.getRevisions().get(note.getRevisions().size() - 1).getId());
+        noteDao.deleteCommentsNote(note.getCurrentRevision().getId());
+        entityVersions.commentsChanged(noteId);
     }
 
     public void rateNote(String sessionId, int noteId, RateNoteDtoRequest request) throws ServerException {
@@ -203,19 +259,54 @@ public class NoteService {
         noteDao.rateNote(noteId, request.getRating());
     }
 
-    public List<GetNoteListDtoResponse> getNoteList(String sessionId, Integer sectionId, SortOrder sortByRating,
+    public Pair<String, List<GetNoteListDtoResponse>> getNoteList(String sessionId, Integer sectionId, SortOrder sortByRating,
                             List<String> tags, boolean alltags, LocalDateTime timeFrom, LocalDateTime timeTo, Integer userId,
                             IncludeType include, boolean comments, boolean allVersions, boolean commentVersion,
-                            int from, Integer count) throws ServerException {
-        User user = getUserBySessionId(sessionId);
-        List<Integer> idUsers = new ArrayList<>();
-        if (userId == null) {
-            idUsers = userDao.getIdUsers(user.getId(), include);
-        }
-        List<Note> notes = noteDao.getNoteList(sectionId, sortByRating, userId, idUsers, timeFrom, timeTo, tags, alltags,
-                from, count);
+                            int from, Integer count, PageCursor cursor) throws ServerException {
+        User user = getUserBySessionToken(sessionId);
+        List<Note> notes = noteDao.getNoteList(sectionId, sortByRating, userId, user.getId(), include, timeFrom, timeTo,
+                tags, alltags, from, count, cursor, allVersions, comments);
         List<GetNoteListDtoResponse> response = createNoteResponseList(notes, comments, allVersions, commentVersion);
-        return response;
+
+        String nextCursor = null;
+        if (count != null && notes.size() == count) {
+            Note last = notes.get(notes.size() - 1);
+            nextCursor = PageCursor.after(sortByRating, last.getRating(), last.getId()).encode();
+        }
+        return new ImmutablePair<>(nextCursor, response);
+    }
+
+    public Pair<String, List<GetNoteListDtoResponse>> getFeed(String sessionId, int count, FeedCursor cursor)
+            throws ServerException {
+        log.debug("Execute getFeed by user with sessionId {}", sessionId);
+        User user = getUserBySessionToken(sessionId);
+        Pair<Long, List<Note>> feed = noteDao.getFeed(user.getId(), cursor == null ? null : cursor.getSeq(), count);
+        String nextCursor = feed.getLeft() == null ? null : new FeedCursor(feed.getLeft()).encode();
+        return new ImmutablePair<>(nextCursor, createNoteResponseList(feed.getRight(), false, false, false));
+    }
+
+    public int getNoteListReaderId(String sessionId) throws ServerException {
+        log.debug("Execute getNoteListReaderId by user with sessionId {}", sessionId);
+        return getUserBySessionToken(sessionId).getId();
+    }
+
+    /**
+     * Reads one page of note_list_stream_page_size notes in its own transaction, so consecutive pages are separate
+     * snapshots. The cursor is null after the last page.
+     */
+    public Pair<PageCursor, List<GetNoteListDtoResponse>> getNoteListPage(int readerId, Integer sectionId, SortOrder sortByRating,
+                                                                          List<String> tags, boolean alltags, LocalDateTime timeFrom,
+                                                                          LocalDateTime timeTo, Integer userId, IncludeType include,
+                                                                          boolean comments, boolean allVersions,
+                                                                          boolean commentVersion, int from, PageCursor cursor) {
+        List<Note> notes = noteDao.getNoteList(sectionId, sortByRating, userId, readerId, include, timeFrom,
+                timeTo, tags, alltags, from, streamPageSize, cursor, allVersions, comments);
+        PageCursor nextCursor = null;
+        if (notes.size() == streamPageSize) {
+            Note last = notes.get(notes.size() - 1);
+            nextCursor = PageCursor.after(sortByRating, last.getRating(), last.getId());
+        }
+        return new ImmutablePair<>(nextCursor, createNoteResponseList(notes, comments, allVersions, commentVersion));
     }
 
     private List<GetNoteListDtoResponse> createNoteResponseList(List<Note> notes, boolean comments, boolean allVersions,
@@ -260,8 +351,33 @@ public class NoteService {
 
 
 
+    private User getUserBySessionToken(String sessionId) throws ServerException {
+        if (!sessionTokens.isTokenMode()) {
+            return getUserBySessionId(sessionId);
+        }
+        SessionTokenService.SessionToken token = sessionTokens.verify(sessionId);
+        log.debug("Execute getUserBySessionToken (SessionToken {})", token);
+        if (token == null) {
+            log.info("Cannot execute getUserBySessionToken, because session token isn't valid");
+            throw new ServerException(ServerErrorCode.THIS_SESSIONID_NOT_FOUND);
+        }
+        LocalDateTime lastActivity = sessionTokens.lastActivity(token);
+        if (lastActivity == null) {
+            return getUserBySessionId(sessionId);
+        }
+        LocalDateTime currentTime = LocalDateTime.now();
+        if (currentTime.isAfter(lastActivity.plusSeconds(userIdleTimeout))) {
+            log.info("Cannot execute getUserBySessionToken, because session time is over");
+            userDao.expireSession(token.getUserId());
+            throw new ServerException(ServerErrorCode.SESSION_TIME_IS_OVER);
+        }
+        userDao.updateSession(token.getUserId(), currentTime);
+        sessionTokens.touch(token.getUserId(), currentTime);
+        return token.toUser();
+    }
+
     private User getUserBySessionId(String sessionId) throws ServerException {
-        Session session = userDao.getSession(sessionId);
+        Session session = userDao.getSession(sessionTokens.sessionIdOf(sessionId));
         log.debug("Execute getUserBySessionId (Session {})", session);
         if(session == null) {
             log.info("Cannot execute getUserBySessionId, because sessionId wasn't found in DB");
@@ -271,9 +387,11 @@ public class NoteService {
         LocalDateTime currentTime = LocalDateTime.now();
         if (currentTime.isAfter(timeLogout)) {
             log.info("Cannot execute getUserBySessionId, because session time is over");
+            userDao.expireSession(session.getUser().getId());
             throw new ServerException(ServerErrorCode.SESSION_TIME_IS_OVER);
         }
         userDao.updateSession(session.getUser().getId(), currentTime);
+        sessionTokens.touch(session.getUser().getId(), currentTime);
         return session.getUser();
     }
 
@@ -0,0 +1,196 @@
+package net.thumbtack.school.notes.service;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.model.User;
+import net.thumbtack.school.notes.model.UserType;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Issues and verifies the JAVASESSIONID cookie: the plain session id, or an HMAC-signed token in "token" mode.
+ */
+@Slf4j
+@Component
+public class SessionTokenService {
+
+    private static final String TOKEN_MODE = "token";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+
+    @Value("${session_mode}")
+    private String sessionMode;
+
+    @Value("${session_token_secret}")
+    private String secret;
+
+    @Value("${session_token_max_age}")
+    private long maxAgeSeconds;
+
+    @Value("${user_idle_timeout}")
+    private int userIdleTimeout;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final Map<Integer, Long> revokedAt = new ConcurrentHashMap<>();
+    private final Map<Integer, Long> lastActivity = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void checkSecret() {
+        if (isTokenMode() && (secret == null || secret.isEmpty())) {
+            throw new IllegalStateException("session_token_secret must be set when session_mode is token");
+        }
+    }
+
+    public boolean isTokenMode() {
+        return TOKEN_MODE.equals(sessionMode);
+    }
+
+    public String issue(String sessionId, User user) {
+        if (!isTokenMode()) {
+            return sessionId;
+        }
+        long issuedAt = System.currentTimeMillis();
+        Long revoked = revokedAt.get(user.getId());
+        if (revoked != null && issuedAt <= revoked) {
+            issuedAt = revoked + 1;
+        }
+        lastActivity.put(user.getId(), issuedAt);
+        String payload = sessionId + ":" + user.getId() + ":" + user.getUserType() + ":" + issuedAt;
+        return encode(payload.getBytes(StandardCharsets.UTF_8)) + "." + encode(sign(payload));
+    }
+
+    /**
+     * Returns the session id behind a cookie, or the cookie itself when it is not a valid token,
+     * so that a lookup by it simply finds nothing.
+     */
+    public String sessionIdOf(String cookie) {
+        if (!isTokenMode()) {
+            return cookie;
+        }
+        SessionToken token = parse(cookie);
+        return token == null ? cookie : token.getSessionId();
+    }
+
+    /**
+     * Returns the token if its signature is valid, it is not older than session_token_max_age
+     * and it was not revoked; null otherwise.
+     */
+    public SessionToken verify(String cookie) {
+        SessionToken token = parse(cookie);
+        if (token == null) {
+            return null;
+        }
+        Long revoked = revokedAt.get(token.getUserId());
+        if (revoked != null && token.getIssuedAt() <= revoked) {
+            log.debug("Token of user {} was revoked", token.getUserId());
+            return null;
+        }
+        return token;
+    }
+
+    /**
+     * Returns the last time the token owner was active, or null if it is unknown to this process.
+     */
+    public LocalDateTime lastActivity(SessionToken token) {
+        Long activity = lastActivity.get(token.getUserId());
+        if (activity == null && token.getIssuedAt() < startTime) {
+            return null;
+        }
+        long last = activity == null ? token.getIssuedAt() : Math.max(activity, token.getIssuedAt());
+        return LocalDateTime.ofInstant(Instant.ofEpochMilli(last), ZoneId.systemDefault());
+    }
+
+    public void touch(int userId, LocalDateTime time) {
+        if (isTokenMode()) {
+            lastActivity.merge(userId, time.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), Math::max);
+        }
+    }
+
+    public void revoke(int userId) {
+        if (isTokenMode()) {
+            revokedAt.put(userId, System.currentTimeMillis());
+            lastActivity.remove(userId);
+        }
+    }
+
+    public void purgeExpired() {
+        long now = System.currentTimeMillis();
+        revokedAt.values().removeIf(time -> time < now - maxAgeSeconds * 1000);
+        lastActivity.values().removeIf(time -> time < now - userIdleTimeout * 1000L);
+    }
+
+    public void clear() {
+        revokedAt.clear();
+        lastActivity.clear();
+    }
+
+    private SessionToken parse(String cookie) {
+        if (!isTokenMode() || cookie == null) {
+            return null;
+        }
+        int dot = cookie.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        try {
+            String payload = new String(Base64.getUrlDecoder().decode(cookie.substring(0, dot)), StandardCharsets.UTF_8);
+            byte[] signature = Base64.getUrlDecoder().decode(cookie.substring(dot + 1));
+            if (!MessageDigest.isEqual(sign(payload), signature)) {
+                return null;
+            }
+            String[] parts = payload.split(":");
+            if (parts.length != 4) {
+                return null;
+            }
+            SessionToken token = new SessionToken(parts[0], Integer.parseInt(parts[1]), UserType.valueOf(parts[2]),
+                    Long.parseLong(parts[3]));
+            if (token.getIssuedAt() < System.currentTimeMillis() - maxAgeSeconds * 1000) {
+                return null;
+            }
+            return token;
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    private byte[] sign(String payload) {
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), HMAC_ALGORITHM));
+            return mac.doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException ex) {
+            throw new IllegalStateException("Cannot sign session token", ex);
+        }
+    }
+
+    private static String encode(byte[] bytes) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    @lombok.Value
+    public static class SessionToken {
+        String sessionId;
+        int userId;
+        UserType userType;
+        long issuedAt;
+
+        public User toUser() {
+            User user = new User();
+            user.setId(userId);
+            user.setUserType(userType);
+            return user;
+        }
+    }
+}
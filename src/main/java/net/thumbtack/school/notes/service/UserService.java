@@ -7,6 +7,7 @@ import net.thumbtack.school.notes.dto.responses.user.EditUserProfileDtoResponse;
 import net.thumbtack.school.notes.dto.responses.user.GetInfoOfUserDtoResponse;
 import net.thumbtack.school.notes.dto.responses.user.GetUsersDtoResponse;
 import net.thumbtack.school.notes.dto.responses.user.RegisterUserDtoResponse;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
 import net.thumbtack.school.notes.endpoint.request_param.SearchParams;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerErrorCode;
@@ -33,13 +34,15 @@ import java.util.*;
 public class UserService {
 
     private final UserDao userDao;
+    private final SessionTokenService sessionTokens;
 
     @Value("${user_idle_timeout}")
     private int userIdleTimeout;
 
     @Autowired
-    public UserService(UserDao userDao) throws IOException {
+    public UserService(UserDao userDao, SessionTokenService sessionTokens) throws IOException {
         this.userDao = userDao;
+        this.sessionTokens = sessionTokens;
     }
 
     public Pair<String, RegisterUserDtoResponse> registerUser(RegisterUserDtoRequest request) throws ServerException {
@@ -52,7 +55,7 @@ public class UserService {
 
         RegisterUserDtoResponse response = new RegisterUserDtoResponse(request.getFirstName(), request.getLastName(),
                 request.getPatronymic(), request.getLogin());
-        return new ImmutablePair<>(sessionId, response);
+        return new ImmutablePair<>(sessionTokens.issue(sessionId, user), response);
     }
 
     public String login(LoginDtoRequest request) throws ServerException {
@@ -61,13 +64,15 @@ public class UserService {
         User user = getUserByLoginAndPassword(request.getLogin(), request.getPassword());
         Session session = new Session(sessionId, LocalDateTime.now(), user);
         userDao.login(session);
-        return sessionId;
+        sessionTokens.revoke(user.getId());
+        return sessionTokens.issue(sessionId, user);
     }
 
     public void logout(String sessionId) throws ServerException {
         log.debug("Execute logout user with sessionId {}", sessionId);
         User user = getUserBySessionId(sessionId);
         userDao.logout(user.getId());
+        sessionTokens.revoke(user.getId());
     }
 
     public EditUserProfileDtoResponse editUserProfile(String sessionId, EditUserProfileDtoRequest request) throws ServerException {
@@ -87,6 +92,7 @@ public class UserService {
         checkIsAdmin(user);
         checkUserIdExists(id);
         userDao.transferToSuperuser(id);
+        sessionTokens.revoke(id);
     }
 
     public void deleteUser(String sessionId, DeleteUserDtoRequest request) throws ServerException {
@@ -95,6 +101,7 @@ public class UserService {
         checkPassword(user.getPassword(), request.getPassword());
         userDao.logout(user.getId());
         userDao.deleteUser(user.getId());
+        sessionTokens.revoke(user.getId());
     }
 
     public GetInfoOfUserDtoResponse getUserInfo(String sessionId) throws ServerException {
@@ -104,38 +111,32 @@ public class UserService {
                 user.getLogin());
     }
 
-    public List<GetUsersDtoResponse> getUserList(String sessionId, SortOrder sortByRating, SearchParams type,
-                                                 int from, Integer count) throws ServerException {
+    public Pair<String, List<GetUsersDtoResponse>> getUserList(String sessionId, SortOrder sortByRating, SearchParams type,
+                                                                int from, Integer count, PageCursor cursor) throws ServerException {
         log.debug("Execute getUserList by user with sessionId {}", sessionId);
     	List<UserView> userList = new ArrayList<>();
-        UserView user = getUserViewBySessionId(sessionId, sortByRating, from, count);
+        UserView user = getUserViewBySessionId(sessionId, sortByRating, from, count, cursor);
         switch (type) {
             case HIGH_RATING:
             case LOW_RATING:
-                userList = userDao.getUsersWithHighOrLowRating(type, sortByRating, from, count);
+                userList = userDao.getUsersWithHighOrLowRating(type, sortByRating, from, count, cursor);
                 break;
             case FOLLOWINGS:
-                userList = user.getFollowings();
-                break;
             case FOLLOWERS:
-                userList = user.getFollowers();
-                break;
             case IGNORE:
-                userList = user.getIgnore();
-                break;
             case IGNORED_BY:
-                userList = user.getIgnoreBy();
+                userList = userDao.getRelatedUsers(user.getId(), type, sortByRating, from, count, cursor);
                 break;
             case DELETED:
-                userList = userDao.getDeletedUsers(sortByRating, from, count);
+                userList = userDao.getDeletedUsers(sortByRating, from, count, cursor);
                 break;
             case SUPER:
                 if (user.getUserType() == UserType.ADMIN) {
-                    userList = userDao.getSuperUsers(sortByRating, from, count);
+                    userList = userDao.getSuperUsers(sortByRating, from, count, cursor);
                 }
                 break;
             case NONE:
-                userList = userDao.getAllUsers(sortByRating, from, count); break;
+                userList = userDao.getAllUsers(sortByRating, from, count, cursor); break;
         }
 
         List<GetUsersDtoResponse> response = new ArrayList<>();
@@ -146,7 +147,12 @@ public class UserService {
                     Math.round(u.getRating() * 10.0) / 10.0));
         }
 
-        return response;
+        String nextCursor = null;
+        if (count != null && userList.size() == count) {
+            UserView last = userList.get(userList.size() - 1);
+            nextCursor = PageCursor.after(sortByRating, last.getRating(), last.getId()).encode();
+        }
+        return new ImmutablePair<>(nextCursor, response);
     }
 
 
@@ -209,7 +215,7 @@ public class UserService {
     }
 
     private User getUserBySessionId(String sessionId) throws ServerException {
-        Session session = userDao.getSession(sessionId);
+        Session session = userDao.getSession(sessionTokens.sessionIdOf(sessionId));
         log.debug("Execute getUserBySessionId (Session {})", session);
         if(session == null) {
             log.info("Cannot execute getUserBySessionId, because sessionId wasn't found in DB");
@@ -220,8 +226,9 @@ public class UserService {
     }
 
     private UserView getUserViewBySessionId(String sessionId, SortOrder sortByRating,
-                                            int from, Integer count) throws ServerException {
-        SessionView session = userDao.getSessionView(sessionId, sortByRating, from, count);
+                                            int from, Integer count, PageCursor cursor) throws ServerException {
+        SessionView session = userDao.getSessionView(sessionTokens.sessionIdOf(sessionId), sortByRating, from, count,
+                cursor);
         log.debug("Execute getUserViewBySessionId (Session {})", session);
         if(session == null) {
             log.info("Cannot execute getUserViewBySessionId, because sessionId wasn't found in DB");
@@ -236,9 +243,11 @@ public class UserService {
         LocalDateTime currentTime = LocalDateTime.now();
         if (currentTime.isAfter(timeLogout)) {
             log.info("Cannot execute getUserBySessionId, because session time is over");
+            userDao.expireSession(userId);
             throw new ServerException(ServerErrorCode.SESSION_TIME_IS_OVER);
         }
         userDao.updateSession(userId, currentTime);
+        sessionTokens.touch(userId, currentTime);
     }
 
     private User getUserByLogin(String login) throws ServerException {
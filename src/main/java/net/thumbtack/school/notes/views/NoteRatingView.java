@@ -0,0 +1,18 @@
+package net.thumbtack.school.notes.views;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+public class NoteRatingView {
+    private int id;
+    private int ownerId;
+    private long ratingSum;
+    private int numberOfRatings;
+    private BigDecimal rating;
+    private BigDecimal ownerRatingSum;
+    private int ownerNoteCount;
+}
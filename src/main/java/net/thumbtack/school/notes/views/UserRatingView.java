@@ -0,0 +1,16 @@
+package net.thumbtack.school.notes.views;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.math.BigDecimal;
+
+@Data
+@NoArgsConstructor
+public class UserRatingView {
+    private int id;
+    private BigDecimal noteRatingSum;
+    private int noteCount;
+    private BigDecimal actualRatingSum;
+    private int actualNoteCount;
+}
@@ -0,0 +1,11 @@
+package net.thumbtack.school.notes.views;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+public class UserRelationView {
+    private int userId;
+    private int targetId;
+}
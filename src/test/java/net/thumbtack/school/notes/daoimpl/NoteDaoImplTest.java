@@ -0,0 +1,361 @@
+package net.thumbtack.school.notes.daoimpl;
+
+import net.thumbtack.school.notes.cache.NoteInfoCache;
+import net.thumbtack.school.notes.cache.RatingBuffer;
+import net.thumbtack.school.notes.dao.NoteDao;
+import net.thumbtack.school.notes.dao.UserDao;
+import net.thumbtack.school.notes.debugging.DebugDaoImpl;
+import net.thumbtack.school.notes.dto.responses.note.GetNoteInfoDtoResponse;
+import net.thumbtack.school.notes.endpoint.request_param.IncludeType;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
+import net.thumbtack.school.notes.endpoint.request_param.SearchParams;
+import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
+import net.thumbtack.school.notes.exception.ServerException;
+import net.thumbtack.school.notes.index.RatingLeaderboard;
+import net.thumbtack.school.notes.mapper.typehandler.RevisionBodyTypeHandler;
+import net.thumbtack.school.notes.model.*;
+import net.thumbtack.school.notes.views.UserView;
+import org.apache.ibatis.executor.statement.StatementHandler;
+import org.apache.ibatis.plugin.Interceptor;
+import org.apache.ibatis.plugin.Intercepts;
+import org.apache.ibatis.plugin.Invocation;
+import org.apache.ibatis.plugin.Signature;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.sql.Connection;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+// RatingFlusher runs once at startup and then stays out of the way, so the tests decide when ratings are flushed.
+@SpringBootTest(properties = "rating_flush_interval=3600000")
+class NoteDaoImplTest {
+
+    private static final int NOTES = 20;
+    private static final int REVISIONS = 3;
+    private static final int COMMENTS = 2;
+
+    @Intercepts(@Signature(type = StatementHandler.class, method = "prepare", args = {Connection.class, Integer.class}))
+    static class StatementCounter implements Interceptor {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Object intercept(Invocation invocation) throws Throwable {
+            count.incrementAndGet();
+            return invocation.proceed();
+        }
+    }
+
+    @TestConfiguration
+    static class StatementCounterConfig {
+        @Bean
+        public StatementCounter statementCounter() {
+            return new StatementCounter();
+        }
+    }
+
+    private final NoteDao noteDao;
+    private final UserDao userDao;
+    private final DebugDaoImpl debugDao;
+    private final StatementCounter statementCounter;
+    private final NoteInfoCache noteInfoCache;
+    private final RatingLeaderboard ratingLeaderboard;
+    private final RatingBuffer ratingBuffer;
+    private final TransactionTemplate transactionTemplate;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public NoteDaoImplTest(NoteDao noteDao, UserDao userDao, DebugDaoImpl debugDao, StatementCounter statementCounter,
+                           NoteInfoCache noteInfoCache, RatingLeaderboard ratingLeaderboard, RatingBuffer ratingBuffer,
+                           PlatformTransactionManager transactionManager, JdbcTemplate jdbcTemplate) {
+        this.noteDao = noteDao;
+        this.userDao = userDao;
+        this.debugDao = debugDao;
+        this.statementCounter = statementCounter;
+        this.noteInfoCache = noteInfoCache;
+        this.ratingLeaderboard = ratingLeaderboard;
+        this.ratingBuffer = ratingBuffer;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    private User user;
+
+    @BeforeEach
+    void setUp() throws ServerException {
+        debugDao.clearStateServer();
+        user = new User("Ekaterina", "Rogozhina", "Andreevna",
+                "katya2001", "katya5643");
+        user.setTimeRegistered(LocalDateTime.now());
+        userDao.registerUser(user, UUID.randomUUID().toString());
+
+        Section section = new Section("Section");
+        noteDao.createSection(section, user.getId());
+        for (int i = 0; i < NOTES; i++) {
+            Note note = new Note("Subject" + i, LocalDateTime.now());
+            noteDao.createNote(note, user.getId(), section.getId());
+            for (int j = 0; j < REVISIONS; j++) {
+                noteDao.createRevision(new Revision("Body" + i + "_" + j), note.getId());
+            }
+            for (Revision revision : noteDao.getRevisions(note.getId())) {
+                for (int k = 0; k < COMMENTS; k++) {
+                    noteDao.createComment(new Comment("Comment" + k, LocalDateTime.now()), user.getId(), revision.getId());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testGetNoteListWithCommentsUsesThreeStatements() {
+        statementCounter.count.set(0);
+        List<Note> notes = noteDao.getNoteList(null, SortOrder.NONE, null, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, null, null, true, true);
+        int statements = statementCounter.count.get();
+
+        assertEquals(NOTES, notes.size());
+        for (Note note : notes) {
+            assertEquals(user.getId(), note.getOwner().getId());
+            assertEquals(REVISIONS, note.getRevisions().size());
+            for (int j = 0; j < REVISIONS; j++) {
+                Revision revision = note.getRevisions().get(j);
+                assertEquals(j + 1, revision.getRevisionIdForNote());
+                assertEquals(COMMENTS, revision.getComments().size());
+                assertEquals(user.getId(), revision.getComments().get(0).getOwner().getId());
+            }
+        }
+        assertEquals(3, statements);
+    }
+
+    @Test
+    public void testGetNoteListWithoutCommentsUsesTwoStatements() {
+        statementCounter.count.set(0);
+        List<Note> notes = noteDao.getNoteList(null, SortOrder.NONE, null, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, 5, null, true, false);
+        int statements = statementCounter.count.get();
+
+        assertEquals(5, notes.size());
+        assertEquals("Body0_2", notes.get(0).getRevisions().get(REVISIONS - 1).getBody());
+        assertEquals(2, statements);
+    }
+
+    @Test
+    public void testGetNoteListWithoutVersionsReadsOnlyCurrentRevisions() {
+        statementCounter.count.set(0);
+        List<Note> notes = noteDao.getNoteList(null, SortOrder.NONE, null, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, 5, null, false, false);
+        int statements = statementCounter.count.get();
+
+        assertEquals(5, notes.size());
+        for (Note note : notes) {
+            assertEquals(1, note.getRevisions().size());
+            assertEquals(REVISIONS, note.getRevisions().get(0).getRevisionIdForNote());
+        }
+        assertEquals("Body0_2", notes.get(0).getRevisions().get(0).getBody());
+        assertEquals(2, statements);
+    }
+
+    @Test
+    public void testGetNoteListByIncludeType() throws ServerException {
+        int followedId = registerAuthor("login0002");
+        int ignoredId = registerAuthor("login0003");
+        userDao.addToFollowing(user.getId(), followedId);
+        userDao.addToIgnore(user.getId(), ignoredId);
+
+        assertAll(
+                () -> assertEquals(new HashSet<>(Arrays.asList(followedId)), getNoteOwners(null, IncludeType.ONLY_FOLLOWINGS)),
+                () -> assertEquals(new HashSet<>(Arrays.asList(ignoredId)), getNoteOwners(null, IncludeType.ONLY_IGNORE)),
+                () -> assertEquals(new HashSet<>(Arrays.asList(user.getId(), followedId)),
+                        getNoteOwners(null, IncludeType.NOT_IGNORE))
+        );
+    }
+
+    @Test
+    public void testGetNoteListUserIdOverridesIncludeType() throws ServerException {
+        int followedId = registerAuthor("login0002");
+        int ignoredId = registerAuthor("login0003");
+        userDao.addToFollowing(user.getId(), followedId);
+        userDao.addToIgnore(user.getId(), ignoredId);
+
+        assertAll(
+                () -> assertEquals(new HashSet<>(Arrays.asList(ignoredId)), getNoteOwners(ignoredId, IncludeType.ONLY_FOLLOWINGS)),
+                () -> assertEquals(new HashSet<>(Arrays.asList(ignoredId)), getNoteOwners(ignoredId, IncludeType.NOT_IGNORE))
+        );
+    }
+
+    @Test
+    public void testNoteInfoReadBeforeRevisionIsNotCached() {
+        List<Note> notes = noteDao.getNoteList(null, SortOrder.NONE, null, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, 2, null, false, false);
+        Note edited = notes.get(0);
+        Note other = notes.get(1);
+
+        long stamp = noteInfoCache.stamp();
+        noteDao.createRevision(new Revision("Body new"), edited.getId());
+        noteInfoCache.put(noteInfo(edited), stamp);
+        noteInfoCache.put(noteInfo(other), stamp);
+
+        assertNull(noteInfoCache.get(edited.getId()));
+        assertEquals(other.getId(), noteInfoCache.get(other.getId()).getId());
+    }
+
+    @Test
+    public void testLeaderboardShowsOnlyCommittedOwnerRatings() throws ServerException {
+        int authorId = registerAuthor("login0002");
+        int noteId = getFirstNoteId(authorId);
+        noteDao.rateNote(noteId, 5);
+
+        transactionTemplate.execute(status -> {
+            noteDao.flushRatings();
+            assertEquals(Collections.emptyList(), getTopRated());
+            status.setRollbackOnly();
+            return null;
+        });
+        assertEquals(Collections.emptyList(), getTopRated());
+
+        noteDao.flushRatings();
+        assertEquals(Collections.singletonList(authorId), getTopRated());
+    }
+
+    @Test
+    public void testUnflushedRatingsOrderNoteAndUserLists() throws ServerException {
+        int authorId = registerAuthor("login0002");
+        int noteId = getFirstNoteId(authorId);
+        noteDao.rateNote(noteId, 4);
+
+        Note top = noteDao.getNoteList(null, SortOrder.DESC, null, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, 1, null, false, false).get(0);
+        assertEquals(noteId, top.getId());
+        assertEquals(4.0, top.getRating());
+        Note next = noteDao.getNoteList(null, SortOrder.DESC, null, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, 1, PageCursor.after(SortOrder.DESC, top.getRating(), top.getId()), false, false).get(0);
+        assertNotEquals(noteId, next.getId());
+
+        UserView topUser = userDao.getAllUsers(SortOrder.DESC, 0, 1, null).get(0);
+        assertEquals(authorId, topUser.getId());
+        assertEquals(4.0, topUser.getRating());
+        assertEquals(authorId, userDao.getUsersWithHighOrLowRating(SearchParams.HIGH_RATING, SortOrder.NONE,
+                0, null, null).get(0).getId());
+        assertEquals(Collections.emptyList(), getTopRated());
+    }
+
+    @Test
+    public void testRolledBackFlushKeepsRatingsBuffered() {
+        int noteId = getFirstNoteId(user.getId());
+        noteDao.rateNote(noteId, 5);
+
+        transactionTemplate.execute(status -> {
+            noteDao.flushRatings();
+            status.setRollbackOnly();
+            return null;
+        });
+        assertEquals(1, ratingBuffer.unflushed(noteId).getCount());
+        assertEquals(5.0, noteDao.getNote(noteId).getRating());
+
+        assertEquals(1, noteDao.flushRatings());
+        assertEquals(0, ratingBuffer.unflushed(noteId).getCount());
+        assertEquals(5.0, noteDao.getNote(noteId).getRating());
+    }
+
+    @Test
+    public void testRatingPagesOrderTiesByIdInSortDirection() {
+        List<Integer> expected = new ArrayList<>();
+        for (Note note : noteDao.getNoteList(null, SortOrder.NONE, null, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, null, null, false, false)) {
+            expected.add(0, note.getId());
+        }
+
+        List<Integer> ids = new ArrayList<>();
+        PageCursor cursor = null;
+        List<Note> page;
+        while (!(page = noteDao.getNoteList(null, SortOrder.DESC, null, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, 7, cursor, false, false)).isEmpty()) {
+            for (Note note : page) {
+                ids.add(note.getId());
+            }
+            Note last = page.get(page.size() - 1);
+            cursor = PageCursor.after(SortOrder.DESC, last.getRating(), last.getId());
+        }
+        assertEquals(expected, ids);
+    }
+
+    @Test
+    public void testUncompressedRowIsReadAndRecompressed() {
+        StringBuilder longBody = new StringBuilder();
+        while (longBody.length() < 2 * RevisionBodyTypeHandler.COMPRESS_THRESHOLD) {
+            longBody.append("Long body ");
+        }
+        String body = longBody.toString();
+        int revisionId = noteDao.getRevisions(getFirstNoteId(user.getId())).get(0).getId();
+        jdbcTemplate.update("UPDATE revision SET body = ?, delta = FALSE WHERE id = ?", body, revisionId);
+
+        assertEquals(body, noteDao.getRevision(revisionId).getBody());
+        assertTrue(getUncompressedRevisionIds().contains(revisionId));
+
+        noteDao.compressRevision(new Revision(revisionId, body));
+        String stored = jdbcTemplate.queryForObject("SELECT body FROM revision WHERE id = ?", String.class, revisionId);
+
+        assertTrue(stored.startsWith(RevisionBodyTypeHandler.MARKER));
+        assertTrue(stored.length() < body.length());
+        assertEquals(body, noteDao.getRevision(revisionId).getBody());
+        assertFalse(getUncompressedRevisionIds().contains(revisionId));
+    }
+
+    private Set<Integer> getUncompressedRevisionIds() {
+        Set<Integer> ids = new HashSet<>();
+        for (Revision revision : noteDao.getUncompressedRevisions(0, NOTES * REVISIONS)) {
+            ids.add(revision.getId());
+        }
+        return ids;
+    }
+
+    private int getFirstNoteId(int ownerId) {
+        return noteDao.getNoteList(null, SortOrder.NONE, ownerId, user.getId(), IncludeType.NONE, null, null,
+                null, false, 0, 1, null, false, false).get(0).getId();
+    }
+
+    private List<Integer> getTopRated() {
+        return ratingLeaderboard.extreme(true, false, Collections.emptyMap(), null, null, 0, null);
+    }
+
+    private static GetNoteInfoDtoResponse noteInfo(Note note) {
+        return new GetNoteInfoDtoResponse(note.getId(), note.getSubject(), "Body", note.getSection().getId(),
+                note.getOwner().getId(), note.getTimeCreated().toString(), REVISIONS);
+    }
+
+    private int registerAuthor(String login) throws ServerException {
+        User author = new User("Ekaterina", "Rogozhina", "Andreevna", login, "password0001");
+        author.setTimeRegistered(LocalDateTime.now());
+        userDao.registerUser(author, UUID.randomUUID().toString());
+        Section section = new Section("Section" + login);
+        noteDao.createSection(section, author.getId());
+        Note note = new Note("Subject" + login, LocalDateTime.now());
+        noteDao.createNote(note, author.getId(), section.getId());
+        noteDao.createRevision(new Revision("Body" + login), note.getId());
+        return author.getId();
+    }
+
+    private Set<Integer> getNoteOwners(Integer userId, IncludeType include) {
+        Set<Integer> owners = new HashSet<>();
+        for (Note note : noteDao.getNoteList(null, SortOrder.NONE, userId, user.getId(), include, null, null,
+                null, false, 0, null, null, false, false)) {
+            owners.add(note.getOwner().getId());
+        }
+        return owners;
+    }
+}
@@ -0,0 +1,106 @@
+package net.thumbtack.school.notes.daoimpl;
+
+import lombok.extern.slf4j.Slf4j;
+import net.thumbtack.school.notes.dao.NoteDao;
+import net.thumbtack.school.notes.dao.UserDao;
+import net.thumbtack.school.notes.debugging.DebugDaoImpl;
+import net.thumbtack.school.notes.exception.ServerException;
+import net.thumbtack.school.notes.model.Note;
+import net.thumbtack.school.notes.model.Revision;
+import net.thumbtack.school.notes.model.Section;
+import net.thumbtack.school.notes.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Slf4j
+@SpringBootTest
+class RevisionDeltaBenchmarkTest {
+
+    private static final int EDITS = 200;
+    private static final int BODY_LENGTH = 4000;
+
+    private final NoteDao noteDao;
+    private final UserDao userDao;
+    private final DebugDaoImpl debugDao;
+    private final JdbcTemplate jdbcTemplate;
+
+    @Autowired
+    public RevisionDeltaBenchmarkTest(NoteDao noteDao, UserDao userDao, DebugDaoImpl debugDao,
+                                      JdbcTemplate jdbcTemplate) {
+        this.noteDao = noteDao;
+        this.userDao = userDao;
+        this.debugDao = debugDao;
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    private Note note;
+    private final List<String> bodies = new ArrayList<>();
+
+    @BeforeEach
+    void setUp() throws ServerException {
+        debugDao.clearStateServer();
+        User user = new User("Ekaterina", "Rogozhina", "Andreevna",
+                "katya2001", "katya5643");
+        user.setTimeRegistered(LocalDateTime.now());
+        userDao.registerUser(user, UUID.randomUUID().toString());
+        Section section = new Section("Section");
+        noteDao.createSection(section, user.getId());
+        note = new Note("Subject", LocalDateTime.now());
+        noteDao.createNote(note, user.getId(), section.getId());
+
+        Random random = new Random(42);
+        StringBuilder body = new StringBuilder();
+        while (body.length() < BODY_LENGTH) {
+            body.append("Line ").append(body.length()).append(" of a long note body.\n");
+        }
+        bodies.clear();
+        for (int i = 0; i < EDITS; i++) {
+            int pos = random.nextInt(body.length() - 10);
+            body.replace(pos, pos + 5, "edit" + i);
+            bodies.add(body.toString());
+            noteDao.createRevision(new Revision(body.toString()), note.getId());
+        }
+    }
+
+    @Test
+    public void testDeltaStorageAndReconstruction() {
+        long fullBytes = 0;
+        for (String body : bodies) {
+            fullBytes += body.length();
+        }
+        Long storedBytes = jdbcTemplate.queryForObject("SELECT SUM(LENGTH(body)) FROM revision WHERE noteId = ?",
+                Long.class, note.getId());
+
+        long start = System.nanoTime();
+        List<Revision> revisions = noteDao.getRevisions(note.getId());
+        long listMicros = (System.nanoTime() - start) / 1000;
+
+        assertEquals(EDITS, revisions.size());
+        for (int i = 0; i < EDITS; i++) {
+            assertEquals(bodies.get(i), revisions.get(i).getBody());
+        }
+
+        long worstMicros = 0;
+        for (Revision revision : revisions) {
+            start = System.nanoTime();
+            Revision single = noteDao.getRevision(revision.getId());
+            worstMicros = Math.max(worstMicros, (System.nanoTime() - start) / 1000);
+            assertEquals(bodies.get(revision.getRevisionIdForNote() - 1), single.getBody());
+        }
+
+        log.info("{} revisions: {} bytes as full bodies, {} bytes stored; all revisions read in {} us, " +
+                "slowest single revision read in {} us", EDITS, fullBytes, storedBytes, listMicros, worstMicros);
+        assertTrue(storedBytes * 4 < fullBytes);
+    }
+}
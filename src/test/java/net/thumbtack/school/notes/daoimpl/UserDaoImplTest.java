@@ -1,24 +1,35 @@
 package net.thumbtack.school.notes.daoimpl;
 
+import net.thumbtack.school.notes.cache.SessionCache;
+import net.thumbtack.school.notes.cache.SessionTouchBuffer;
 import net.thumbtack.school.notes.dao.UserDao;
 import net.thumbtack.school.notes.debugging.DebugDaoImpl;
+import net.thumbtack.school.notes.endpoint.request_param.PageCursor;
+import net.thumbtack.school.notes.endpoint.request_param.SearchParams;
 import net.thumbtack.school.notes.endpoint.request_param.SortOrder;
 import net.thumbtack.school.notes.exception.ServerErrorCode;
 import net.thumbtack.school.notes.exception.ServerException;
+import net.thumbtack.school.notes.jobs.UserRatingVerifier;
+import net.thumbtack.school.notes.mapper.typehandler.SessionIdTypeHandler;
 import net.thumbtack.school.notes.model.Session;
 import net.thumbtack.school.notes.model.User;
 import net.thumbtack.school.notes.model.UserType;
+import net.thumbtack.school.notes.service.UserService;
 import net.thumbtack.school.notes.views.UserView;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
 
 import java.sql.Timestamp;
 import java.time.LocalDateTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -28,11 +39,21 @@ class UserDaoImplTest {
 
     private final UserDao userDao;
     private final DebugDaoImpl debugDao;
+    private final UserService userService;
+    private final JdbcTemplate jdbcTemplate;
+    private final SessionCache sessionCache;
+    private final UserRatingVerifier userRatingVerifier;
 
     @Autowired
-    public UserDaoImplTest(UserDao userDao, DebugDaoImpl debugDao) {
+    public UserDaoImplTest(UserDao userDao, DebugDaoImpl debugDao, UserService userService,
+                           JdbcTemplate jdbcTemplate, SessionCache sessionCache,
+                           UserRatingVerifier userRatingVerifier) {
         this.userDao = userDao;
         this.debugDao = debugDao;
+        this.userService = userService;
+        this.jdbcTemplate = jdbcTemplate;
+        this.sessionCache = sessionCache;
+        this.userRatingVerifier = userRatingVerifier;
     }
 
     private User user;
@@ -161,6 +182,169 @@ class UserDaoImplTest {
         assertEquals(expectedIgnore, userDao.getSession(sessionId).getUser().getIgnore());
     }
 
+    @Test
+    public void testRelatedUsersFollowGraph() throws ServerException {
+        User user2 = registerUser2();
+        userDao.addToFollowing(user.getId(), user2.getId());
+        userDao.addToIgnore(user2.getId(), user.getId());
+
+        assertEquals(user2.getId(), userDao.getRelatedUsers(user.getId(), SearchParams.FOLLOWINGS, SortOrder.NONE,
+                0, null, null).get(0).getId());
+        assertEquals(user.getId(), userDao.getRelatedUsers(user2.getId(), SearchParams.FOLLOWERS, SortOrder.DESC,
+                0, null, null).get(0).getId());
+        assertEquals(user2.getId(), userDao.getRelatedUsers(user.getId(), SearchParams.IGNORED_BY, SortOrder.ASC,
+                0, null, null).get(0).getId());
+
+        userDao.deleteFromFollowing(user.getId(), user2.getId());
+        assertTrue(userDao.getRelatedUsers(user2.getId(), SearchParams.FOLLOWERS, SortOrder.NONE,
+                0, null, null).isEmpty());
+    }
+
+    @Test
+    public void testBufferedTouchKeepsSessionAliveForAccountList() throws ServerException {
+        jdbcTemplate.update("UPDATE session SET timeLogin = ? WHERE userId = ?",
+                Timestamp.valueOf(LocalDateTime.now().minusHours(1)), user.getId());
+        LocalDateTime touched = LocalDateTime.now().withNano(0);
+        userDao.updateSession(user.getId(), touched);
+
+        assertEquals(touched, userDao.getSessionView(sessionId, SortOrder.NONE, 0, null).getTimeLogin());
+        assertEquals(1, userService.getUserList(sessionId, SortOrder.NONE, SearchParams.NONE, 0, null, null)
+                .getRight().size());
+    }
+
+    @Test
+    public void testOnlineStatusFollowsLoginAndLogout() throws ServerException {
+        User user2 = registerUser2();
+        assertTrue(getAllUsersById().get(user2.getId()).isOnline());
+
+        userDao.logout(user2.getId());
+        assertFalse(getAllUsersById().get(user2.getId()).isOnline());
+        assertTrue(getAllUsersById().get(user.getId()).isOnline());
+
+        userDao.login(new Session(UUID.randomUUID().toString(), LocalDateTime.now(), user2));
+        assertTrue(getAllUsersById().get(user2.getId()).isOnline());
+    }
+
+    @Test
+    public void testSessionIdIsStoredAsBinaryKey() {
+        byte[] key = jdbcTemplate.queryForObject("SELECT sessionId FROM session WHERE userId = ?", byte[].class,
+                user.getId());
+
+        assertArrayEquals(SessionIdTypeHandler.toBytes(sessionId), key);
+        assertEquals(sessionId, SessionIdTypeHandler.fromBytes(key));
+        assertEquals(sessionId, userDao.getSessionView(sessionId, SortOrder.NONE, 0, null).getSessionId());
+        assertNull(userDao.getSession("not-a-session-id"));
+    }
+
+    @Test
+    public void testTouchBufferKeepsTouchesUntilFlushCompletes() {
+        SessionTouchBuffer buffer = new SessionTouchBuffer();
+        LocalDateTime touched = LocalDateTime.now().withNano(0);
+        buffer.touch(user.getId(), touched);
+
+        Map<Integer, LocalDateTime> drained = buffer.drain();
+        assertEquals(touched, drained.get(user.getId()));
+        assertEquals(touched, buffer.lastTouch(user.getId()));
+        assertTrue(buffer.drain().isEmpty());
+
+        buffer.touch(user.getId(), touched.plusSeconds(1));
+        buffer.restore(drained);
+        assertEquals(touched.plusSeconds(1), buffer.lastTouch(user.getId()));
+
+        drained = buffer.drain();
+        assertEquals(touched.plusSeconds(1), drained.get(user.getId()));
+        buffer.completeFlush(drained);
+        assertNull(buffer.lastTouch(user.getId()));
+    }
+
+    @Test
+    public void testFlushedTouchIsWrittenToSession() {
+        LocalDateTime touched = LocalDateTime.now().withNano(0);
+        userDao.updateSession(user.getId(), touched);
+        userDao.flushSessionTouches();
+
+        assertEquals(Timestamp.valueOf(touched), jdbcTemplate.queryForObject(
+                "SELECT timeLogin FROM session WHERE userId = ?", Timestamp.class, user.getId()));
+    }
+
+    @Test
+    public void testDeleteExpiredSessionsReportsOnlyDeletedSessions() throws ServerException {
+        User user2 = registerUser2();
+        jdbcTemplate.update("UPDATE session SET timeLogin = ?", Timestamp.valueOf(LocalDateTime.now().minusHours(1)));
+        assertEquals(user, userDao.getSession(sessionId).getUser());
+        String sessionId2 = UUID.randomUUID().toString();
+        userDao.login(new Session(sessionId2, LocalDateTime.now(), user2));
+
+        assertEquals(Arrays.asList(user.getId()),
+                userDao.deleteExpiredSessions(LocalDateTime.now().minusMinutes(30), 10));
+        assertNull(userDao.getSession(sessionId));
+        assertEquals(user2.getId(), userDao.getSession(sessionId2).getUser().getId());
+    }
+
+    @Test
+    public void testSessionReadBeforeLogoutIsNotCached() {
+        long stamp = sessionCache.stamp();
+        Session readBeforeLogout = new Session(sessionId, LocalDateTime.now(), user);
+        userDao.logout(user.getId());
+        sessionCache.put(readBeforeLogout, stamp);
+
+        assertNull(sessionCache.get(sessionId));
+        assertNull(userDao.getSession(sessionId));
+    }
+
+    @Test
+    public void testSessionOfOtherUserIsCachedDespiteLogout() throws ServerException {
+        User user2 = registerUser2();
+        long stamp = sessionCache.stamp();
+        Session session = new Session(sessionId, LocalDateTime.now(), user);
+        userDao.logout(user2.getId());
+        sessionCache.put(session, stamp);
+
+        assertEquals(user, sessionCache.get(sessionId).getUser());
+    }
+
+    @Test
+    public void testRatingPagesOrderTiesByIdInSortDirection() throws ServerException {
+        User user2 = registerUser2();
+        User user3 = new User("Ekaterina", "Rogozhina", "Andreevna", "katya2003", "katya5643");
+        user3.setTimeRegistered(LocalDateTime.now());
+        userDao.registerUser(user3, UUID.randomUUID().toString());
+
+        assertEquals(Arrays.asList(user3.getId(), user2.getId(), user.getId()), getUserIdsPageByPage(SortOrder.DESC));
+        assertEquals(Arrays.asList(user.getId(), user2.getId(), user3.getId()), getUserIdsPageByPage(SortOrder.ASC));
+    }
+
+    @Test
+    public void testUserRatingVerifierReportsOnlyStoredDrift() throws ServerException {
+        registerUser2();
+        userRatingVerifier.verify();
+        assertEquals(0, userRatingVerifier.getLastDrifted());
+
+        jdbcTemplate.update("UPDATE user SET noteRatingSum = 5 WHERE id = ?", user.getId());
+        userRatingVerifier.verify();
+        assertEquals(1, userRatingVerifier.getLastDrifted());
+    }
+
+    private Map<Integer, UserView> getAllUsersById() {
+        Map<Integer, UserView> users = new HashMap<>();
+        for (UserView userView : userDao.getAllUsers(SortOrder.NONE, 0, null, null)) {
+            users.put(userView.getId(), userView);
+        }
+        return users;
+    }
+
+    private List<Integer> getUserIdsPageByPage(SortOrder sortByRating) {
+        List<Integer> ids = new ArrayList<>();
+        PageCursor cursor = null;
+        List<UserView> page;
+        while (!(page = userDao.getAllUsers(sortByRating, 0, 1, cursor)).isEmpty()) {
+            UserView last = page.get(0);
+            ids.add(last.getId());
+            cursor = PageCursor.after(sortByRating, last.getRating(), last.getId());
+        }
+        return ids;
+    }
+
     private User registerUser2() throws ServerException {
         User user2 = new User("Ekaterina", "Rogozhina", "Andreevna",
                 "katya2002", "katya5643");
@@ -0,0 +1,114 @@
+package net.thumbtack.school.notes.endpoint.note;
+
+import net.thumbtack.school.notes.NotesServer;
+import net.thumbtack.school.notes.dto.requests.note.CreateNoteDtoRequest;
+import net.thumbtack.school.notes.dto.requests.note.EditOrTransferNoteDtoRequest;
+import net.thumbtack.school.notes.dto.requests.note.SectionNameDtoRequest;
+import net.thumbtack.school.notes.dto.requests.user.AddToListDtoRequest;
+import net.thumbtack.school.notes.dto.requests.user.RegisterUserDtoRequest;
+import net.thumbtack.school.notes.dto.responses.note.GetNoteInfoDtoResponse;
+import net.thumbtack.school.notes.dto.responses.note.GetNoteListDtoResponse;
+import net.thumbtack.school.notes.dto.responses.note.SectionDataDtoResponse;
+import net.thumbtack.school.notes.dto.responses.user.RegisterUserDtoResponse;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.http.*;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.web.client.RestTemplate;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@ExtendWith(SpringExtension.class)
+@ContextConfiguration(classes= NotesServer.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.DEFINED_PORT)
+class FeedEndPointTest {
+
+    private final RestTemplate template = new RestTemplate();
+
+    private HttpHeaders readerHeaders;
+    private HttpHeaders authorHeaders;
+    private int sectionId;
+    private int noteId1;
+
+    @BeforeEach
+    void setUp() {
+        template.postForEntity("http://localhost:8080/api/debug/clear", null, Object.class);
+        readerHeaders = register("login0001", "password0001");
+        authorHeaders = register("login0002", "password0002");
+
+        sectionId = template.exchange("http://localhost:8080/api/sections", HttpMethod.POST,
+                new HttpEntity<>(new SectionNameDtoRequest("section1"), authorHeaders),
+                SectionDataDtoResponse.class).getBody().getId();
+        noteId1 = createNote("subject1");
+
+        template.exchange("http://localhost:8080/api/followings", HttpMethod.POST,
+                new HttpEntity<>(new AddToListDtoRequest("login0002"), readerHeaders), Void.class);
+    }
+
+    @Test
+    public void testFeedOrdersByLatestActivityAndPagesByCursor() {
+        assertEquals("subject1", getFeed("").getBody().get(0).getSubject());
+
+        createNote("subject2");
+        template.exchange("http://localhost:8080/api/notes/{id}", HttpMethod.PUT,
+                new HttpEntity<>(new EditOrTransferNoteDtoRequest("revision2", null), authorHeaders),
+                GetNoteInfoDtoResponse.class, noteId1);
+
+        ResponseEntity<List<GetNoteListDtoResponse>> firstPage = getFeed("?count=1");
+        String cursor = firstPage.getHeaders().getFirst("X-Next-Cursor");
+        assertAll(
+                () -> assertEquals(1, firstPage.getBody().size()),
+                () -> assertEquals("revision2", firstPage.getBody().get(0).getBody()),
+                () -> assertNotNull(cursor)
+        );
+
+        List<GetNoteListDtoResponse> secondPage = getFeed("?count=5&cursor=" + cursor).getBody();
+        assertEquals(1, secondPage.size());
+        assertEquals("subject2", secondPage.get(0).getSubject());
+    }
+
+    @Test
+    public void testFeedDropsUnfollowedAuthors() {
+        template.exchange("http://localhost:8080/api/followings/login0002", HttpMethod.DELETE,
+                new HttpEntity<>(readerHeaders), Void.class);
+        assertTrue(getFeed("").getBody().isEmpty());
+    }
+
+    @Test
+    public void testFeedSkipsDeletedNotes() {
+        int noteId2 = createNote("subject2");
+        template.exchange("http://localhost:8080/api/notes/{id}", HttpMethod.DELETE,
+                new HttpEntity<>(authorHeaders), Void.class, noteId2);
+
+        List<GetNoteListDtoResponse> page = getFeed("?count=1").getBody();
+        assertEquals(1, page.size());
+        assertEquals(noteId1, page.get(0).getId());
+    }
+
+    private HttpHeaders register(String login, String password) {
+        RegisterUserDtoRequest request = new RegisterUserDtoRequest("Ekaterina", "Rogozhina", "Andreevna",
+                login, password);
+        String cookie = template.postForEntity("http://localhost:8080/api/accounts", request,
+                RegisterUserDtoResponse.class).getHeaders().getFirst(HttpHeaders.SET_COOKIE);
+        HttpHeaders headers = new HttpHeaders();
+        headers.add("Cookie", cookie);
+        return headers;
+    }
+
+    private int createNote(String subject) {
+        return template.exchange("http://localhost:8080/api/notes", HttpMethod.POST,
+                new HttpEntity<>(new CreateNoteDtoRequest(subject, "revision1", sectionId), authorHeaders),
+                GetNoteInfoDtoResponse.class).getBody().getId();
+    }
+
+    private ResponseEntity<List<GetNoteListDtoResponse>> getFeed(String query) {
+        return template.exchange("http://localhost:8080/api/feed" + query, HttpMethod.GET,
+                new HttpEntity<>(readerHeaders), new ParameterizedTypeReference<List<GetNoteListDtoResponse>>(){});
+    }
+}
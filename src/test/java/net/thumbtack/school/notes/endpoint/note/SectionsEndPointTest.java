@@ -364,6 +364,50 @@ class SectionsEndPointTest {
         );
     }
 
+    @Test
+    public void testSectionListFollowsRenameAndDelete() {
+        int sectionId = template.exchange("http://localhost:8080/api/sections", HttpMethod.POST,
+                new HttpEntity<>(new SectionNameDtoRequest("section1"), headers), SectionDataDtoResponse.class)
+                .getBody().getId();
+        template.exchange("http://localhost:8080/api/sections/{id}", HttpMethod.PUT,
+                new HttpEntity<>(new SectionNameDtoRequest("section2"), headers), SectionDataDtoResponse.class, sectionId);
+
+        assertEquals("section2", template.exchange("http://localhost:8080/api/sections/{id}", HttpMethod.GET,
+                new HttpEntity<>(headers), SectionDataDtoResponse.class, sectionId).getBody().getName());
+        assertEquals("section2", getSectionList(headers).getBody().get(0).getName());
+
+        template.exchange("http://localhost:8080/api/sections/{id}", HttpMethod.DELETE, new HttpEntity<>(headers),
+                Object.class, sectionId);
+        assertTrue(getSectionList(headers).getBody().isEmpty());
+    }
+
+    @Test
+    public void testGetSectionListIsNotModifiedUntilWrite() {
+        template.exchange("http://localhost:8080/api/sections", HttpMethod.POST,
+                new HttpEntity<>(new SectionNameDtoRequest("section1"), headers), SectionDataDtoResponse.class);
+        String eTag = getSectionList(headers).getHeaders().getETag();
+        assertNotNull(eTag);
+
+        HttpHeaders conditional = new HttpHeaders();
+        conditional.putAll(headers);
+        conditional.setIfNoneMatch(eTag);
+        assertEquals(HttpStatus.NOT_MODIFIED, getSectionList(conditional).getStatusCode());
+
+        template.exchange("http://localhost:8080/api/sections", HttpMethod.POST,
+                new HttpEntity<>(new SectionNameDtoRequest("section2"), headers), SectionDataDtoResponse.class);
+        ResponseEntity<List<SectionDataDtoResponse>> modified = getSectionList(conditional);
+        assertAll(
+                () -> assertEquals(HttpStatus.OK, modified.getStatusCode()),
+                () -> assertNotEquals(eTag, modified.getHeaders().getETag()),
+                () -> assertEquals(2, modified.getBody().size())
+        );
+    }
+
+    private ResponseEntity<List<SectionDataDtoResponse>> getSectionList(HttpHeaders headers) {
+        return template.exchange("http://localhost:8080/api/sections", HttpMethod.GET, new HttpEntity<>(headers),
+                new ParameterizedTypeReference<List<SectionDataDtoResponse>>(){});
+    }
+
     private ServerErrors createException(ServerErrorCode errorCode) {
         Set<ServerError> expectedErrors = new HashSet<>();
         expectedErrors.add(new ServerError(errorCode, errorCode.getField(),
@@ -0,0 +1,58 @@
+package net.thumbtack.school.notes.service;
+
+import net.thumbtack.school.notes.model.User;
+import net.thumbtack.school.notes.model.UserType;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@SpringBootTest(properties = {"session_mode=token", "session_token_secret=test-secret"})
+class SessionTokenServiceTest {
+
+    private final SessionTokenService sessionTokens;
+
+    @Autowired
+    public SessionTokenServiceTest(SessionTokenService sessionTokens) {
+        this.sessionTokens = sessionTokens;
+    }
+
+    private User user;
+    private String sessionId;
+
+    @BeforeEach
+    void setUp() {
+        sessionTokens.clear();
+        user = new User("Ekaterina", "Rogozhina", "Andreevna", "katya2001", "katya5643");
+        user.setId(1);
+        user.setUserType(UserType.USER);
+        sessionId = UUID.randomUUID().toString();
+    }
+
+    @Test
+    public void testRevokedTokenIsRejectedAndNewTokenAccepted() {
+        String token = sessionTokens.issue(sessionId, user);
+        assertEquals(sessionId, sessionTokens.verify(token).getSessionId());
+
+        sessionTokens.revoke(user.getId());
+        assertNull(sessionTokens.verify(token));
+
+        String newToken = sessionTokens.issue(sessionId, user);
+        assertEquals(user.getId(), sessionTokens.verify(newToken).getUserId());
+        assertNull(sessionTokens.verify(token));
+    }
+
+    @Test
+    public void testTamperedTokenIsRejected() {
+        String token = sessionTokens.issue(sessionId, user);
+        String tampered = token.substring(0, token.length() - 2) + (token.endsWith("AA") ? "BB" : "AA");
+
+        assertNull(sessionTokens.verify(tampered));
+        assertEquals(tampered, sessionTokens.sessionIdOf(tampered));
+        assertEquals(sessionId, sessionTokens.sessionIdOf(token));
+    }
+}